@@ -0,0 +1,245 @@
+package com.github.hexosse.githubupdater;
+
+
+/*
+ * Copyright 2016 Hexosse
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Rules used to pick the asset to download from a release.
+ * <p>
+ * Name patterns are compiled when they are added, so a selector can be reused for every check.
+ * An asset is selected if its name matches one of the include patterns (any name if there is none),
+ * none of the exclude patterns, and the content type and size limits.
+ * When several assets match, the one matching the first include pattern wins, then the last one in the release.
+ * </p>
+ * <pre>
+ * AssetSelector selector = new AssetSelector()
+ *         .include("MyPlugin-*.jar")
+ *         .exclude("*-sources.jar")
+ *         .releaseTypes(GitHubUpdater.ReleaseType.RELEASE);
+ * </pre>
+ *
+ * @author hexoose
+ * @version 1.0
+ */
+public class AssetSelector {
+
+    // Remote file's name
+    static final String NAME_VALUE = "name";
+    // Remote file's content type
+    static final String CONTENT_TYPE_VALUE = "content_type";
+    // Remote file's size
+    static final String SIZE_VALUE = "size";
+
+    private final List<Pattern> includes = new ArrayList<Pattern>();
+    private final List<Pattern> excludes = new ArrayList<Pattern>();
+    private final List<String> contentTypes = new ArrayList<String>();
+    private long minSize = 0;
+    private long maxSize = Long.MAX_VALUE;
+    private Set<GitHubUpdater.ReleaseType> releaseTypes = EnumSet.allOf(GitHubUpdater.ReleaseType.class);
+
+    /**
+     * Get the default selector: any asset except sources and javadoc jars.
+     *
+     * @return a new selector.
+     */
+    public static AssetSelector defaults() {
+        return new AssetSelector().exclude("*-sources.jar").exclude("*-javadoc.jar");
+    }
+
+    /**
+     * Add a glob pattern (* and ?) the asset name should match. Earlier patterns have priority.
+     *
+     * @param glob glob pattern, case insensitive.
+     * @return this selector.
+     */
+    public AssetSelector include(String glob) {
+        this.includes.add(compileGlob(glob));
+        return this;
+    }
+
+    /**
+     * Add a regular expression the asset name should match. Earlier patterns have priority.
+     *
+     * @param regex regular expression.
+     * @return this selector.
+     */
+    public AssetSelector includeRegex(String regex) {
+        this.includes.add(Pattern.compile(regex));
+        return this;
+    }
+
+    /**
+     * Add a glob pattern (* and ?) the asset name should not match.
+     *
+     * @param glob glob pattern, case insensitive.
+     * @return this selector.
+     */
+    public AssetSelector exclude(String glob) {
+        this.excludes.add(compileGlob(glob));
+        return this;
+    }
+
+    /**
+     * Add a regular expression the asset name should not match.
+     *
+     * @param regex regular expression.
+     * @return this selector.
+     */
+    public AssetSelector excludeRegex(String regex) {
+        this.excludes.add(Pattern.compile(regex));
+        return this;
+    }
+
+    /**
+     * Add an accepted content type (such as "application/java-archive"). Any content type is accepted if there is none.
+     *
+     * @param contentType accepted content type.
+     * @return this selector.
+     */
+    public AssetSelector contentType(String contentType) {
+        this.contentTypes.add(contentType.toLowerCase());
+        return this;
+    }
+
+    /**
+     * Set the accepted size range of the asset.
+     *
+     * @param minSize minimal size in bytes.
+     * @param maxSize maximal size in bytes.
+     * @return this selector.
+     */
+    public AssetSelector size(long minSize, long maxSize) {
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    /**
+     * Set the release types that can be downloaded. All types are accepted by default.
+     *
+     * @param types accepted release types.
+     * @return this selector.
+     */
+    public AssetSelector releaseTypes(GitHubUpdater.ReleaseType... types) {
+        this.releaseTypes = EnumSet.noneOf(GitHubUpdater.ReleaseType.class);
+        for (GitHubUpdater.ReleaseType type : types) {
+            this.releaseTypes.add(type);
+        }
+        return this;
+    }
+
+    /**
+     * Check if a release of the given type can be used.
+     *
+     * @param type release type.
+     * @return true if the release type is accepted.
+     */
+    public boolean accepts(GitHubUpdater.ReleaseType type) {
+        return this.releaseTypes.contains(type);
+    }
+
+    /**
+     * Select the asset to download in one pass over the release assets.
+     * Delta assets are never selected, they are only used to rebuild the asset they are named after.
+     *
+     * @param assets assets of the release.
+     * @return the selected asset, or null if none matches.
+     */
+    public JSONObject select(JSONArray assets) {
+        JSONObject selected = null;
+        int selectedRank = Integer.MAX_VALUE;
+        for (Object object : assets) {
+            JSONObject asset = (JSONObject) object;
+            int rank = this.rank(asset);
+            if (rank != -1 && rank <= selectedRank) {
+                selected = asset;
+                selectedRank = rank;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Check an asset against the rules.
+     *
+     * @param asset a release asset.
+     * @return the index of the matching include pattern, or -1 if the asset does not match.
+     */
+    int rank(JSONObject asset) {
+        String name = String.valueOf(asset.get(NAME_VALUE));
+        if (name.endsWith(DeltaPatcher.SUFFIX)) {
+            return -1;
+        }
+
+        Object size = asset.get(SIZE_VALUE);
+        if (size instanceof Number && (((Number) size).longValue() < this.minSize || ((Number) size).longValue() > this.maxSize)) {
+            return -1;
+        }
+
+        if (!this.contentTypes.isEmpty()) {
+            Object contentType = asset.get(CONTENT_TYPE_VALUE);
+            if (contentType == null || !this.contentTypes.contains(contentType.toString().toLowerCase())) {
+                return -1;
+            }
+        }
+
+        for (Pattern exclude : this.excludes) {
+            if (exclude.matcher(name).matches()) {
+                return -1;
+            }
+        }
+
+        if (this.includes.isEmpty()) {
+            return 0;
+        }
+        for (int i = 0; i < this.includes.size(); i++) {
+            if (this.includes.get(i).matcher(name).matches()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Pattern compileGlob(String glob) {
+        StringBuilder regex = new StringBuilder(glob.length() + 8);
+        StringBuilder literal = new StringBuilder();
+        for (char c : glob.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE);
+    }
+}
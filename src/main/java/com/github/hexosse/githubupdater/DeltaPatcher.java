@@ -0,0 +1,186 @@
+package com.github.hexosse.githubupdater;
+
+
+/*
+ * Copyright 2016 Hexosse
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Rebuild a new plugin jar from the installed jar and a delta asset.
+ * <p>
+ * A delta asset is a zip file published next to the jar, named after it with the {@code .delta} suffix
+ * (for example {@code MyPlugin-1.2.0.jar.delta}). It contains:
+ * </p>
+ * <ul>
+ *     <li>{@code delta.manifest}: one line per entry of the new jar, in order, made of the
+ *     SHA-1 of the entry content in hexadecimal, a tab, then the entry name.
+ *     The first line is the header {@code GitHubUpdater-Delta: 1}.</li>
+ *     <li>{@code entries/<name>}: the content of every entry that is new or changed.</li>
+ * </ul>
+ * <p>
+ * Entries not shipped in the delta are copied from the installed jar. If one of them is missing
+ * or its hash does not match the manifest, the installed jar is not the expected base and the
+ * caller has to fall back to the full download.
+ * </p>
+ *
+ * @author hexoose
+ * @version 1.0
+ */
+final class DeltaPatcher {
+
+    // Suffix of the delta asset name
+    static final String SUFFIX = ".delta";
+    // Name of the manifest inside the delta
+    private static final String MANIFEST = "delta.manifest";
+    // Header of the manifest
+    private static final String HEADER = "GitHubUpdater-Delta: 1";
+    // Folder holding the changed entries inside the delta
+    private static final String ENTRIES = "entries/";
+    // Used for copying entries
+    private static final int BYTE_SIZE = 8192;
+    // Manifest encoding
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private DeltaPatcher() {
+    }
+
+    /**
+     * Build the new jar from the installed jar and the delta.
+     *
+     * @param base   The installed jar.
+     * @param delta  The downloaded delta asset.
+     * @param target The jar to write.
+     * @return true if the jar was rebuilt, false if the installed jar does not match the delta base.
+     * @throws IOException if one of the files could not be read or written.
+     */
+    static boolean patch(File base, File delta, File target) throws IOException {
+        ZipFile baseZip = new ZipFile(base);
+        try {
+            ZipFile deltaZip = new ZipFile(delta);
+            try {
+                List<String[]> manifest = readManifest(deltaZip);
+                if (manifest == null) {
+                    return false;
+                }
+
+                ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(target), BYTE_SIZE));
+                try {
+                    MessageDigest digest = MessageDigest.getInstance("SHA-1");
+                    byte[] buffer = new byte[BYTE_SIZE];
+                    for (String[] line : manifest) {
+                        String hash = line[0];
+                        String name = line[1];
+
+                        ZipFile source = deltaZip;
+                        ZipEntry entry = deltaZip.getEntry(ENTRIES + name);
+                        if (entry == null) {
+                            source = baseZip;
+                            entry = baseZip.getEntry(name);
+                            if (entry == null) {
+                                return false;
+                            }
+                        }
+
+                        ZipEntry outEntry = new ZipEntry(name);
+                        if (entry.getTime() != -1) {
+                            outEntry.setTime(entry.getTime());
+                        }
+                        out.putNextEntry(outEntry);
+                        digest.reset();
+                        InputStream in = source.getInputStream(entry);
+                        try {
+                            int count;
+                            while ((count = in.read(buffer)) != -1) {
+                                digest.update(buffer, 0, count);
+                                out.write(buffer, 0, count);
+                            }
+                        } finally {
+                            in.close();
+                        }
+                        out.closeEntry();
+
+                        if (!hash.equalsIgnoreCase(toHex(digest.digest()))) {
+                            return false;
+                        }
+                    }
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IOException("SHA-1 is not available", e);
+                } finally {
+                    out.close();
+                }
+                return true;
+            } finally {
+                deltaZip.close();
+            }
+        } finally {
+            baseZip.close();
+        }
+    }
+
+    /**
+     * Read the manifest of a delta.
+     *
+     * @param deltaZip The delta asset.
+     * @return The list of (hash, name) pairs, or null if the manifest is missing or unknown.
+     * @throws IOException if the manifest could not be read.
+     */
+    private static List<String[]> readManifest(ZipFile deltaZip) throws IOException {
+        ZipEntry entry = deltaZip.getEntry(MANIFEST);
+        if (entry == null) {
+            return null;
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(deltaZip.getInputStream(entry), UTF8));
+        try {
+            if (!HEADER.equals(reader.readLine())) {
+                return null;
+            }
+            List<String[]> manifest = new ArrayList<String[]>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                int tab = line.indexOf('\t');
+                if (tab <= 0 || tab == line.length() - 1) {
+                    return null;
+                }
+                manifest.add(new String[] { line.substring(0, tab), line.substring(tab + 1) });
+            }
+            return manifest;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+            builder.append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,36 @@
+package com.github.hexosse.githubupdater;
+
+
+/*
+ * Copyright 2016 Hexosse
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Called from the download threads of the updater while an update is downloaded.
+ * Calls are serialized, even when several assets are downloaded at once, so the listener sees one event
+ * at a time and should return quickly. Events are throttled, see {@link GitHubUpdater.Options#setProgressInterval(long)}.
+ *
+ * @author hexoose
+ * @version 1.0
+ */
+public interface DownloadListener {
+
+    /**
+     * Called when the download progressed, and once when it is done.
+     *
+     * @param progress The download progress.
+     */
+    void onProgress(DownloadProgress progress);
+}
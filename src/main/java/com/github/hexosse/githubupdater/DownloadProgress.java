@@ -0,0 +1,105 @@
+package com.github.hexosse.githubupdater;
+
+
+/*
+ * Copyright 2016 Hexosse
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Progress of a download, given to a {@link DownloadListener}.
+ *
+ * @author hexoose
+ * @version 1.0
+ */
+public class DownloadProgress {
+
+    private final String fileName;
+    private final long bytes;
+    private final long length;
+    private final long rate;
+    private final boolean done;
+
+    DownloadProgress(String fileName, long bytes, long length, long rate, boolean done) {
+        this.fileName = fileName;
+        this.bytes = bytes;
+        this.length = length;
+        this.rate = rate;
+        this.done = done;
+    }
+
+    /**
+     * @return name of the downloaded file.
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return number of bytes downloaded so far.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return size of the file in bytes, or -1 if the server did not send it.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return average download rate in bytes per second.
+     */
+    public long getRate() {
+        return rate;
+    }
+
+    /**
+     * @return downloaded percentage, or -1 if the size of the file is unknown.
+     */
+    public int getPercent() {
+        return length > 0 ? (int) Math.min(100, (bytes * 100) / length) : -1;
+    }
+
+    /**
+     * @return estimated remaining time in seconds, or -1 if unknown.
+     */
+    public long getEta() {
+        return (length > 0 && rate > 0) ? Math.max(0, (length - bytes) / rate) : -1;
+    }
+
+    /**
+     * @return true if this is the last event of the download.
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        if (length > 0) {
+            builder.append(getPercent()).append("% of ").append(length).append(" bytes");
+        } else {
+            builder.append(bytes).append(" bytes");
+        }
+        builder.append(" (").append(rate / 1024).append(" KB/s");
+        if (!done && getEta() >= 0) {
+            builder.append(", ").append(getEta()).append("s left");
+        }
+        return builder.append(')').toString();
+    }
+}
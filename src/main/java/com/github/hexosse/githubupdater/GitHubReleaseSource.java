@@ -0,0 +1,58 @@
+package com.github.hexosse.githubupdater;
+
+
+/*
+ * Copyright 2016 Hexosse
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.net.URLConnection;
+
+/**
+ * Get releases from the GitHub API.
+ *
+ * @author hexoose
+ * @version 1.0
+ */
+public class GitHubReleaseSource extends HttpReleaseSource {
+
+    // Path to GET
+    private static final String QUERY = "/repos/" + REPOSITORY_PLACEHOLDER + "/releases";
+    // GitHub API host
+    private static final String HOST = "https://api.github.com";
+    // User-agent when querying GitHub
+    private static final String USER_AGENT = "hexosse";
+
+    /**
+     * Create a source for api.github.com.
+     */
+    public GitHubReleaseSource() {
+        this(HOST);
+    }
+
+    /**
+     * Create a source for another GitHub API host, such as a GitHub Enterprise server.
+     *
+     * @param host The API host, such as "https://github.example.com/api/v3".
+     */
+    public GitHubReleaseSource(String host) {
+        super(host.replaceFirst("^https?://", ""), host + QUERY);
+    }
+
+    @Override
+    protected void prepare(URLConnection conn) {
+        conn.addRequestProperty("Accept", "application/vnd.github.v3+json");
+        conn.addRequestProperty("User-Agent", USER_AGENT);
+    }
+}
@@ -18,21 +18,32 @@ package com.github.hexosse.githubupdater;
  */
 
 import java.io.*;
-import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
+import org.bukkit.plugin.InvalidDescriptionException;
 import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.scheduler.BukkitRunnable;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
 
 /**
  * Check for updates on GitHub for a gien repository.
@@ -50,6 +61,8 @@ public class GitHubUpdater {
 
     // Remote file's download link
     private static final String LINK_VALUE = "browser_download_url";
+    // Remote file's name
+    private static final String NAME_VALUE = "name";
     // Remote file's release type
     private static final String TYPE_PRERELEASE_VALUE = "prerelease";
     private static final String TYPE_DRAFT_VALUE = "draft";
@@ -57,16 +70,20 @@ public class GitHubUpdater {
     private static final String VERSION_VALUE = "tag_name";
     // Remote file's build version
     private static final String ASSETS_VALUE = "assets";
-    // Path to GET
-    private static final String QUERY = "/repos/{{ REPOSITORY }}/releases";
-    // Slugs will be appended to this to get to the project's RSS feed
-    private static final String HOST = "https://api.github.com";
-    // User-agent when querying Curse
-    private static final String USER_AGENT = "hexosse";
     // If the version number contains one of these, don't update.
     private static final String[] NO_UPDATE_TAG = { "-DEV", "-PRE", "-SNAPSHOT" };
-    // Used for downloading files
+    // Used for extracting files
     private static final int BYTE_SIZE = 1024;
+    // Used for downloading files
+    private static final int DOWNLOAD_BYTE_SIZE = 16 * 1024;
+    private static final int DOWNLOAD_CONNECT_TIMEOUT = 6000;
+    private static final int DOWNLOAD_READ_TIMEOUT = 10000;
+    // How long the other assets are given to stop after one failed, in milliseconds
+    private static final long DOWNLOAD_STOP_TIMEOUT = 30000;
+    // Downloads are written to a file with this extension until they are complete
+    private static final String PART_SUFFIX = ".part";
+    // Extension of the install journal
+    private static final String JOURNAL_SUFFIX = ".journal";
     // Config key for disabling Updater
     private static final String DISABLE_CONFIG_KEY = "disable";
     // Default disable value in config
@@ -90,19 +107,38 @@ public class GitHubUpdater {
     private final String repository;
     // The plugin version
     private final Version current;
+    // Rules used to pick the release and the asset to download
+    private final AssetSelector selector;
+    // Where releases are read from
+    private final ReleaseSourceRouter sources;
+    // The provided download listener (if any)
+    private final DownloadListener downloadListener;
+    // Forwards the progress of every download, one event at a time
+    private final DownloadListener progressListener = new ProgressListener();
+    // Minimal delay and percentage between two download progress events
+    private final long progressInterval;
+    private final int progressStep;
+    // Cleans the leftovers of previous updates from the update folder
+    private final UpdateJanitor janitor;
+    // Journal of the install in progress
+    private final File journal;
+    // Rules used to pick the companion assets of the release
+    private final List<AssetSelector> companions;
+    // Maximal number of assets downloaded at the same time
+    private final int downloadThreads;
 
     /* Collected from GitHub */
 
     private Version version;
     private String versionName;
     private String versionLink;
+    private String deltaLink;
+    private final List<String> companionLinks = new ArrayList<String>();
     private ReleaseType versionType;
     private String versionLatest;
 
     /* Update process variables */
 
-    // Connection to RSS
-    private URL url;
     // Updater thread
     private Thread thread;
     // Used for determining the outcome of the update process
@@ -144,6 +180,10 @@ public class GitHubUpdater {
          * The server administrator has improperly configured their API key in the configuration.
          */
         FAIL_API,
+        /**
+         * The updater downloaded a file which is not a valid jar, or not the expected plugin version.
+         */
+        FAIL_BADFILE,
         /**
          * The updater found an update, but because of the UpdateType being set to NO_DOWNLOAD, it wasn't downloaded.
          */
@@ -346,6 +386,217 @@ public class GitHubUpdater {
         }
     }
 
+    /**
+     * Optional settings of the updater.
+     */
+    public static class Options
+    {
+        private AssetSelector assetSelector = AssetSelector.defaults();
+        private ReleaseSourceRouter releaseSources = null;
+        private DownloadListener downloadListener = null;
+        private long progressInterval = 1000;
+        private int progressStep = 10;
+        private long cleanupMaxAge = 24 * 60 * 60 * 1000L;
+        private long cleanupMaxSize = 64 * 1024 * 1024L;
+        private int cleanupMaxDeletions = 64;
+        private final List<AssetSelector> companionAssets = new ArrayList<AssetSelector>();
+        private int downloadThreads = 4;
+
+        /**
+         * @return rules used to pick the release and the asset to download.
+         */
+        public AssetSelector getAssetSelector() {
+            return assetSelector;
+        }
+
+        /**
+         * Set the rules used to pick the release and the asset to download. See {@link AssetSelector}
+         *
+         * @param assetSelector asset selector
+         * @return this options
+         */
+        public Options setAssetSelector(AssetSelector assetSelector) {
+            this.assetSelector = assetSelector;
+            return this;
+        }
+
+        /**
+         * @return sources the releases are read from, api.github.com if none was set.
+         */
+        public ReleaseSourceRouter getReleaseSources() {
+            return releaseSources != null ? releaseSources : new ReleaseSourceRouter(new GitHubReleaseSource());
+        }
+
+        /**
+         * Set the sources the releases are read from, such as a mirror or a local directory. See {@link ReleaseSourceRouter}
+         *
+         * @param releaseSources release sources
+         * @return this options
+         */
+        public Options setReleaseSources(ReleaseSourceRouter releaseSources) {
+            this.releaseSources = releaseSources;
+            return this;
+        }
+
+        /**
+         * Set the sources the releases are read from, tried from the fastest to the slowest.
+         *
+         * @param releaseSources release sources
+         * @return this options
+         */
+        public Options setReleaseSources(ReleaseSource... releaseSources) {
+            return this.setReleaseSources(new ReleaseSourceRouter(releaseSources));
+        }
+
+        /**
+         * @return listener notified of the download progress, or null.
+         */
+        public DownloadListener getDownloadListener() {
+            return downloadListener;
+        }
+
+        /**
+         * Set a listener notified of the download progress. It is called from the download threads of the updater,
+         * one event at a time even when several assets are downloaded at once, and should return quickly.
+         *
+         * @param downloadListener download listener
+         * @return this options
+         */
+        public Options setDownloadListener(DownloadListener downloadListener) {
+            this.downloadListener = downloadListener;
+            return this;
+        }
+
+        /**
+         * @return minimal delay in milliseconds between two download progress events.
+         */
+        public long getProgressInterval() {
+            return progressInterval;
+        }
+
+        /**
+         * Set the minimal delay between two download progress events. Defaults to one second.
+         *
+         * @param progressInterval delay in milliseconds
+         * @return this options
+         */
+        public Options setProgressInterval(long progressInterval) {
+            this.progressInterval = progressInterval;
+            return this;
+        }
+
+        /**
+         * @return minimal percentage between two download progress events.
+         */
+        public int getProgressStep() {
+            return progressStep;
+        }
+
+        /**
+         * Set the minimal percentage between two download progress events, when the file size is known. Defaults to 10.
+         *
+         * @param progressStep percentage
+         * @return this options
+         */
+        public Options setProgressStep(int progressStep) {
+            this.progressStep = progressStep;
+            return this;
+        }
+
+        /**
+         * @return age in milliseconds after which the leftovers of an update are removed.
+         */
+        public long getCleanupMaxAge() {
+            return cleanupMaxAge;
+        }
+
+        /**
+         * Set the age after which the leftovers of an update (its staging folder with the downloads and extracted files) are removed.
+         * Staging folders nothing was written to for ten minutes are removed earlier. Defaults to one day.
+         *
+         * @param cleanupMaxAge age in milliseconds
+         * @return this options
+         */
+        public Options setCleanupMaxAge(long cleanupMaxAge) {
+            this.cleanupMaxAge = cleanupMaxAge;
+            return this;
+        }
+
+        /**
+         * @return size in bytes over which the oldest leftovers of updates are removed.
+         */
+        public long getCleanupMaxSize() {
+            return cleanupMaxSize;
+        }
+
+        /**
+         * Set the size of leftovers kept in the update folder before the oldest are removed. Defaults to 64 MB.
+         *
+         * @param cleanupMaxSize size in bytes
+         * @return this options
+         */
+        public Options setCleanupMaxSize(long cleanupMaxSize) {
+            this.cleanupMaxSize = cleanupMaxSize;
+            return this;
+        }
+
+        /**
+         * @return maximal number of files deleted each time the update folder is cleaned.
+         */
+        public int getCleanupMaxDeletions() {
+            return cleanupMaxDeletions;
+        }
+
+        /**
+         * Set the maximal number of files deleted each time the update folder is cleaned,
+         * so that large leftovers are removed over several updates. Defaults to 64.
+         *
+         * @param cleanupMaxDeletions number of files
+         * @return this options
+         */
+        public Options setCleanupMaxDeletions(int cleanupMaxDeletions) {
+            this.cleanupMaxDeletions = cleanupMaxDeletions;
+            return this;
+        }
+
+        /**
+         * @return rules used to pick the companion assets of the release.
+         */
+        public List<AssetSelector> getCompanionAssets() {
+            return Collections.unmodifiableList(companionAssets);
+        }
+
+        /**
+         * Add a companion asset downloaded with the main asset of the same release, such as a data or config zip.
+         * A companion which matches no asset of the release is ignored.
+         *
+         * @param companionAsset rules used to pick the companion asset
+         * @return this options
+         */
+        public Options addCompanionAsset(AssetSelector companionAsset) {
+            this.companionAssets.add(companionAsset);
+            return this;
+        }
+
+        /**
+         * @return maximal number of assets downloaded at the same time.
+         */
+        public int getDownloadThreads() {
+            return downloadThreads;
+        }
+
+        /**
+         * Set the maximal number of assets downloaded at the same time when the release has companion assets. Defaults to 4.
+         *
+         * @param downloadThreads number of threads
+         * @return this options
+         */
+        public Options setDownloadThreads(int downloadThreads) {
+            this.downloadThreads = Math.max(1, downloadThreads);
+            return this;
+        }
+    }
+
     /**
      * Initialize the updater.
      *
@@ -382,7 +633,22 @@ public class GitHubUpdater {
      * @param callback      The callback instance to notify when the Updater has finished
      * @param announce      True if the program should announce the progress of new updates in console.
      */
-    public GitHubUpdater(Plugin plugin, String repository, File file, UpdateType type, UpdateCallback callback, boolean announce)
+    public GitHubUpdater(Plugin plugin, String repository, File file, UpdateType type, UpdateCallback callback, boolean announce) {
+        this(plugin, repository, file, type, callback, announce, new Options());
+    }
+
+    /**
+     * Initialize the updater with the provided callback and options.
+     *
+     * @param plugin        The plugin that is checking for an update.
+     * @param repository    The GitHub repository thay store the project.
+     * @param file          The file that the plugin is running from, get this by doing this.getFile() from within your main class.
+     * @param type          Specify the type of update this will be. See {@link UpdateType}
+     * @param callback      The callback instance to notify when the Updater has finished
+     * @param announce      True if the program should announce the progress of new updates in console.
+     * @param options       The optional settings of the updater. See {@link Options}
+     */
+    public GitHubUpdater(Plugin plugin, String repository, File file, UpdateType type, UpdateCallback callback, boolean announce, Options options)
     {
         this.plugin = plugin;
         this.type = type;
@@ -392,24 +658,24 @@ public class GitHubUpdater {
         this.updateFolder = this.plugin.getServer().getUpdateFolderFile();
         this.current = Version.parse(this.plugin.getDescription().getVersion());
         this.callback = callback;
-
-        try
-        {
-            this.url = new URL(((String)(GitHubUpdater.HOST + GitHubUpdater.QUERY)).replace("{{ REPOSITORY }}", this.repository));
-        } catch (NumberFormatException e) {
-            this.plugin.getLogger().log(Level.SEVERE, "Unable to parse semver string.", e);
-            this.result = UpdateResult.FAIL_API;
-        } catch (final MalformedURLException e) {
-            this.plugin.getLogger().log(Level.SEVERE, "Invalid URL, return failed response.", e);
-            this.result = UpdateResult.FAIL_API;
-        }
-
-        if (this.result != UpdateResult.FAIL_API) {
-            this.thread = new Thread(new UpdateRunnable());
-            this.thread.start();
-        } else {
-            runUpdater();
+        this.selector = options.getAssetSelector();
+        this.sources = options.getReleaseSources();
+        this.downloadListener = options.getDownloadListener();
+        this.progressInterval = options.getProgressInterval();
+        this.progressStep = options.getProgressStep();
+        this.janitor = new UpdateJanitor(this.updateFolder, this.plugin.getDescription().getName(), this.plugin.getLogger(),
+                options.getCleanupMaxAge(), options.getCleanupMaxSize(), options.getCleanupMaxDeletions());
+        this.journal = GitHubUpdater.journalFile(this.plugin);
+        this.companions = new ArrayList<AssetSelector>(options.getCompanionAssets());
+        this.downloadThreads = options.getDownloadThreads();
+
+        // Recover before the plugin reads files that a crash may have left half installed
+        if (!GitHubUpdater.recover(this.plugin)) {
+            this.result = UpdateResult.FAIL_DOWNLOAD;
         }
+
+        this.thread = new Thread(new UpdateRunnable());
+        this.thread.start();
     }
 
     /**
@@ -472,62 +738,264 @@ public class GitHubUpdater {
     }
 
     /**
-     * Save an update from hexosse.github.com into the server's update folder.
-     *
-     * @param file the name of the file to save it as.
+     * Save an update from the release source into the server's update folder.
+     * <p>
+     * Every selected asset is downloaded in its own thread into a staging folder and extracted as soon as
+     * its download finishes. The files are installed together once every asset is ready, or not at all,
+     * through a journal replayed by {@link #recover(Plugin)} if the server stops in the middle.
+     * </p>
      */
-    private void saveFile(String file)
+    private void saveFiles()
     {
         final File folder = this.updateFolder;
 
-        deleteOldFiles();
+        this.janitor.clean();
         if (!folder.exists()) {
             this.fileIOOrError(folder, folder.mkdir(), true);
         }
-        downloadFile();
 
-        // Check to see if it's a zip file, if it is, unzip it.
-        final File dFile = new File(folder.getAbsolutePath(), file);
-        if (dFile.getName().endsWith(".zip")) {
-            // Unzip
-            this.unzip(dFile.getAbsolutePath());
-        }
+        final StagedInstall install = new StagedInstall(new File(folder, UpdateJanitor.STAGING_PREFIX + System.currentTimeMillis()), this.journal);
+        this.fileIOOrError(install.getFolder(), install.getFolder().mkdir(), true);
+        this.janitor.register(install.getFolder());
+
+        final List<String> links = new ArrayList<String>();
+        links.add(this.versionLink);
+        links.addAll(this.companionLinks);
         if (this.announce) {
+            this.plugin.getLogger().info("About to download a new update: " + this.versionLatest);
+        }
+
+        boolean stopped = true;
+        if (links.size() == 1) {
+            this.stageOrFail(new StageTask(this.versionLink, true, install));
+        } else {
+            final ExecutorService executor = Executors.newFixedThreadPool(Math.min(links.size(), this.downloadThreads), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, plugin.getName() + " updater download");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            final CompletionService<Void> completion = new ExecutorCompletionService<Void>(executor);
+            try {
+                for (final String link : links) {
+                    completion.submit(new StageTask(link, link.equals(this.versionLink), install));
+                }
+                // Assets are taken as they finish, so that the first failure is seen right away
+                for (int i = 0; i < links.size(); i++) {
+                    try {
+                        completion.take().get();
+                    } catch (final ExecutionException e) {
+                        // No need to finish the other assets
+                        this.stageFailed(e.getCause());
+                        break;
+                    }
+                }
+            } catch (final InterruptedException e) {
+                this.plugin.getLogger().log(Level.SEVERE, null, e);
+                this.result = UpdateResult.FAIL_DOWNLOAD;
+                Thread.currentThread().interrupt();
+            } finally {
+                // Interrupt the other assets, they stop at their next chunk or at the read timeout
+                executor.shutdownNow();
+                stopped = this.awaitTermination(executor);
+            }
+        }
+
+        if (this.result == UpdateResult.SUCCESS) {
+            try {
+                install.commit();
+            } catch (final IOException e) {
+                this.plugin.getLogger().log(Level.SEVERE, "The auto-updater could not install the new update.", e);
+                this.result = UpdateResult.FAIL_DOWNLOAD;
+            }
+        }
+        if (!stopped) {
+            // A task may still write into the staging folder, it is left registered for the janitor
+            this.plugin.getLogger().warning("The updater could not stop every download, " + install.getFolder().getName() + " will be removed later.");
+        } else if (install.discard()) {
+            this.janitor.forget(install.getFolder());
+        }
+
+        if (this.announce && this.result == UpdateResult.SUCCESS) {
             this.plugin.getLogger().info("Finished updating.");
         }
     }
 
     /**
-     * Download a file and save it to the specified folder.
+     * Wait for the download threads to stop.
+     *
+     * @param executor the executor running the stage tasks, already shut down.
+     * @return true if every stage task has stopped.
      */
-    private void downloadFile()
+    private boolean awaitTermination(ExecutorService executor)
     {
-        BufferedInputStream in = null;
-        FileOutputStream fout = null;
         try {
-            URL fileUrl = new URL(this.versionLink);
-            String fileName = fileUrl.toString().substring(fileUrl.toString().lastIndexOf("/") + 1);
-            final int fileLength = fileUrl.openConnection().getContentLength();
-            in = new BufferedInputStream(fileUrl.openStream());
-            fout = new FileOutputStream(new File(this.updateFolder, fileName));
+            return executor.awaitTermination(GitHubUpdater.DOWNLOAD_STOP_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
 
-            final byte[] data = new byte[GitHubUpdater.BYTE_SIZE];
-            int count;
-            if (this.announce) {
-                this.plugin.getLogger().info("About to download a new update: " + this.versionLatest);
+    /**
+     * Finish or undo an install of the plugin that was interrupted by a crash or a server stop.
+     * <p>
+     * The updater does this when it is created, before its thread starts. Call it at the top of
+     * onEnable, before the plugin loads its files, if the updater is created later or not on every start.
+     * It only checks for a journal file when there is nothing to recover.
+     * </p>
+     *
+     * @param plugin The plugin that was updated.
+     * @return true if there was nothing to recover or the install was recovered, false if it could not be.
+     */
+    public static boolean recover(Plugin plugin)
+    {
+        final File journal = GitHubUpdater.journalFile(plugin);
+        try {
+            final String outcome = StagedInstall.recover(journal);
+            if (outcome != null) {
+                plugin.getLogger().warning("The updater found an interrupted install and " + outcome + " it.");
             }
+            return true;
+        } catch (final IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "The updater could not recover the interrupted install described in " + journal.getAbsolutePath(), e);
+            return false;
+        }
+    }
+
+    /**
+     * @param plugin The plugin that is updated.
+     * @return the journal of the installs of the plugin.
+     */
+    private static File journalFile(Plugin plugin)
+    {
+        return UpdateJanitor.metadataFile(plugin.getServer().getUpdateFolderFile(), plugin.getDescription().getName(), GitHubUpdater.JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Run a stage task in the updater thread.
+     *
+     * @param task the task to run.
+     */
+    private void stageOrFail(StageTask task)
+    {
+        try {
+            task.call();
+        } catch (final Exception e) {
+            this.stageFailed(e);
+        }
+    }
+
+    /**
+     * Log the failure of an asset and set the result of the update process.
+     *
+     * @param cause the error thrown by the stage task.
+     */
+    private void stageFailed(Throwable cause)
+    {
+        if (cause instanceof StageException) {
+            this.plugin.getLogger().warning(cause.getMessage());
+            this.result = ((StageException) cause).result;
+        } else {
+            this.plugin.getLogger().log(Level.WARNING, "The auto-updater tried to download a new update, but was unsuccessful.", cause);
+            this.result = GitHubUpdater.UpdateResult.FAIL_DOWNLOAD;
+        }
+    }
+
+    /**
+     * Download one asset into the staging folder, then extract it if it is a zip.
+     */
+    private class StageTask implements Callable<Void>
+    {
+        private final String link;
+        private final boolean primary;
+        private final StagedInstall install;
+
+        private StageTask(String link, boolean primary, StagedInstall install) {
+            this.link = link;
+            this.primary = primary;
+            this.install = install;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            final String name = getFileName(this.link);
+            final File staged = new File(this.install.getFolder(), name);
+            if (!this.primary || deltaLink == null || !applyDelta(staged)) {
+                download(this.link, staged);
+            }
+
+            if (name.endsWith(".zip")) {
+                unzip(staged, this.install);
+            } else if (name.endsWith(".jar")) {
+                final String error = validateJar(staged, this.primary);
+                if (error != null) {
+                    throw new StageException(UpdateResult.FAIL_BADFILE, error);
+                }
+                this.install.add(staged, new File(updateFolder, name));
+            } else {
+                this.install.add(staged, new File(updateFolder, name));
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Error of an asset with its update result.
+     */
+    private static class StageException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final UpdateResult result;
+
+        private StageException(UpdateResult result, String message) {
+            super(message);
+            this.result = result;
+        }
+    }
+
+    /**
+     * Copy a remote file to a local file, reporting the progress to the download listeners.
+     *
+     * @param link the link of the remote file.
+     * @param destination the local file.
+     * @throws IOException if the file could not be downloaded.
+     */
+    private void download(String link, File destination) throws IOException
+    {
+        final URLConnection conn = new URL(link).openConnection();
+        conn.setConnectTimeout(GitHubUpdater.DOWNLOAD_CONNECT_TIMEOUT);
+        conn.setReadTimeout(GitHubUpdater.DOWNLOAD_READ_TIMEOUT);
+        final long fileLength = conn.getContentLengthLong();
+        final ProgressTracker tracker = new ProgressTracker(this.progressListener, destination.getName(), fileLength, this.progressInterval, this.progressStep);
+        final File part = new File(destination.getParentFile(), destination.getName() + GitHubUpdater.PART_SUFFIX);
+        InputStream in = null;
+        OutputStream fout = null;
+        try {
+            in = conn.getInputStream();
+            fout = new FileOutputStream(part);
+
+            final byte[] data = new byte[GitHubUpdater.DOWNLOAD_BYTE_SIZE];
+            int count;
             long downloaded = 0;
-            while ((count = in.read(data, 0, GitHubUpdater.BYTE_SIZE)) != -1) {
+            while ((count = in.read(data, 0, GitHubUpdater.DOWNLOAD_BYTE_SIZE)) != -1) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Download of " + destination.getName() + " was cancelled");
+                }
                 downloaded += count;
                 fout.write(data, 0, count);
-                final int percent = (int) ((downloaded * 100) / fileLength);
-                if (this.announce && ((percent % 10) == 0)) {
-                    this.plugin.getLogger().info("Downloading update: " + percent + "% of " + fileLength + " bytes.");
-                }
+                tracker.update(downloaded);
+            }
+            fout.close();
+            fout = null;
+            tracker.done(downloaded);
+
+            if ((destination.exists() && !destination.delete()) || !part.renameTo(destination)) {
+                throw new IOException("Could not rename " + part.getName() + " to " + destination.getName());
             }
-        } catch (Exception ex) {
-            this.plugin.getLogger().log(Level.WARNING, "The auto-updater tried to download a new update, but was unsuccessful.", ex);
-            this.result = GitHubUpdater.UpdateResult.FAIL_DOWNLOAD;
         } finally {
             try {
                 if (in != null) {
@@ -536,44 +1004,81 @@ public class GitHubUpdater {
             } catch (final IOException ex) {
                 this.plugin.getLogger().log(Level.SEVERE, null, ex);
             }
-            try {
-                if (fout != null) {
-                    fout.close();
-                }
-            } catch (final IOException ex) {
-                this.plugin.getLogger().log(Level.SEVERE, null, ex);
+            if (fout != null) {
+                fout.close();
+            }
+            if (part.exists()) {
+                this.fileIOOrError(part, part.delete(), false);
             }
         }
     }
 
     /**
-     * Remove possibly leftover files from the update folder.
+     * Rebuild the new jar from the installed plugin file and the delta published with the release.
+     *
+     * @param target the jar to build.
+     * @return true if the new jar was rebuilt, false if the full file has to be downloaded.
      */
-    private void deleteOldFiles() {
-        //Just a quick check to make sure we didn't leave any files from last time...
-        File[] list = listFilesOrError(this.updateFolder);
-        for (final File xFile : list) {
-            if (xFile.getName().endsWith(".zip")) {
-                this.fileIOOrError(xFile, xFile.mkdir(), true);
+    private boolean applyDelta(File target)
+    {
+        if (!this.file.isFile() || !target.getName().endsWith(".jar")) {
+            return false;
+        }
+
+        final File delta = new File(target.getParentFile(), this.getFileName(this.deltaLink));
+        try {
+            if (this.announce) {
+                this.plugin.getLogger().info("About to download a delta update: " + this.versionLatest);
+            }
+            this.download(this.deltaLink, delta);
+
+            if (DeltaPatcher.patch(this.file, delta, target)) {
+                return true;
             }
+            if (this.announce) {
+                this.plugin.getLogger().info("The delta update does not match the installed file, downloading the full update.");
+            }
+        } catch (final IOException ex) {
+            this.plugin.getLogger().log(Level.WARNING, "The auto-updater could not apply the delta update, downloading the full update.", ex);
+        } finally {
+            if (delta.exists()) {
+                this.fileIOOrError(delta, delta.delete(), false);
+            }
+        }
+
+        if (target.exists()) {
+            this.fileIOOrError(target, target.delete(), false);
         }
+        return false;
     }
 
     /**
      * Part of Zip-File-Extractor, modified by Gravity for use with Updater.
+     * The extracted files are added to the install instead of being moved right away.
      *
-     * @param file the location of the file to extract.
+     * @param fSourceZip the file to extract.
+     * @param install the install the extracted files are added to.
+     * @throws IOException if the zip could not be extracted.
      */
-    private void unzip(String file) {
-        final File fSourceZip = new File(file);
+    private void unzip(File fSourceZip, StagedInstall install) throws IOException {
+        final String file = fSourceZip.getAbsolutePath();
+        final File zipPath = new File(file.substring(0, file.length() - 4));
+        final String zipCanonicalPath = zipPath.getCanonicalPath() + File.separator;
+        final ZipFile zipFile = new ZipFile(fSourceZip);
         try {
-            final String zipPath = file.substring(0, file.length() - 4);
-            ZipFile zipFile = new ZipFile(fSourceZip);
             Enumeration<? extends ZipEntry> e = zipFile.entries();
             while (e.hasMoreElements()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Extraction of " + fSourceZip.getName() + " was cancelled");
+                }
                 ZipEntry entry = e.nextElement();
                 File destinationFilePath = new File(zipPath, entry.getName());
-                this.fileIOOrError(destinationFilePath.getParentFile(), destinationFilePath.getParentFile().mkdirs(), true);
+                if (!destinationFilePath.getCanonicalPath().startsWith(zipCanonicalPath)) {
+                    throw new StageException(UpdateResult.FAIL_BADFILE, "The updater downloaded a zip with an invalid entry " + entry.getName());
+                }
+                if (!destinationFilePath.getParentFile().isDirectory()) {
+                    this.fileIOOrError(destinationFilePath.getParentFile(), destinationFilePath.getParentFile().mkdirs(), true);
+                }
                 if (!entry.isDirectory()) {
                     final BufferedInputStream bis = new BufferedInputStream(zipFile.getInputStream(entry));
                     int b;
@@ -588,62 +1093,80 @@ public class GitHubUpdater {
                     bis.close();
                     final String name = destinationFilePath.getName();
                     if (name.endsWith(".jar") && this.pluginExists(name)) {
-                        File output = new File(this.updateFolder, name);
-                        this.fileIOOrError(output, destinationFilePath.renameTo(output), true);
+                        final String error = this.validateJar(destinationFilePath, false);
+                        if (error != null) {
+                            throw new StageException(UpdateResult.FAIL_BADFILE, error);
+                        }
+                        install.add(destinationFilePath, new File(this.updateFolder, name));
                     }
                 }
             }
-            zipFile.close();
-
-            // Move any plugin data folders that were included to the right place, Bukkit won't do this for us.
-            moveNewZipFiles(zipPath);
-
-        } catch (final IOException e) {
-            this.plugin.getLogger().log(Level.SEVERE, "The auto-updater tried to unzip a new update file, but was unsuccessful.", e);
-            this.result = GitHubUpdater.UpdateResult.FAIL_DOWNLOAD;
         } finally {
+            zipFile.close();
             this.fileIOOrError(fSourceZip, fSourceZip.delete(), false);
         }
+
+        // Move any plugin data folders that were included to the right place, Bukkit won't do this for us.
+        addNewZipFiles(zipPath, install);
     }
 
     /**
      * Find any new files extracted from an update into the plugin's data directory.
      * @param zipPath path of extracted files.
+     * @param install the install the new files are added to.
      */
-    private void moveNewZipFiles(String zipPath) {
-        File[] list = listFilesOrError(new File(zipPath));
+    private void addNewZipFiles(File zipPath, StagedInstall install) {
+        File[] list = listFilesOrError(zipPath);
         for (final File dFile : list) {
             if (dFile.isDirectory() && this.pluginExists(dFile.getName())) {
                 // Current dir
                 final File oFile = new File(this.plugin.getDataFolder().getParent(), dFile.getName());
                 // List of existing files in the new dir
                 final File[] dList = listFilesOrError(dFile);
-                // List of existing files in the current dir
-                final File[] oList = listFilesOrError(oFile);
                 for (File cFile : dList) {
-                    // Loop through all the files in the new dir
-                    boolean found = false;
-                    for (final File xFile : oList) {
-                        // Loop through all the contents in the current dir to see if it exists
-                        if (xFile.getName().equals(cFile.getName())) {
-                            found = true;
-                            break;
-                        }
-                    }
-                    if (!found) {
-                        // Move the new file into the current dir
-                        File output = new File(oFile, cFile.getName());
-                        this.fileIOOrError(output, cFile.renameTo(output), true);
-                    } else {
-                        // This file already exists, so we don't need it anymore.
-                        this.fileIOOrError(cFile, cFile.delete(), false);
+                    // Only files that do not exist yet in the current dir are installed
+                    final File output = new File(oFile, cFile.getName());
+                    if (!output.exists()) {
+                        install.add(cFile, output);
                     }
                 }
             }
-            this.fileIOOrError(dFile, dFile.delete(), false);
         }
-        File zip = new File(zipPath);
-        this.fileIOOrError(zip, zip.delete(), false);
+    }
+
+    /**
+     * Check that a downloaded jar is a valid plugin before it is installed.
+     * Only the zip central directory and the plugin.yml entry are read.
+     *
+     * @param jar the jar to check.
+     * @param primary true if the jar is the main asset, false if it is a companion asset or was extracted from a zip.
+     * @return null if the jar can be installed, the reason why it can not otherwise.
+     */
+    private String validateJar(File jar, boolean primary)
+    {
+        final PluginDescriptionFile description;
+        try {
+            description = PluginJarValidator.readDescription(jar);
+        } catch (final IOException e) {
+            return "The updater downloaded an invalid file " + jar.getName() + ": " + e.getMessage();
+        } catch (final InvalidDescriptionException e) {
+            return "The updater downloaded a file with an invalid plugin.yml " + jar.getName() + ": " + e.getMessage();
+        }
+
+        final boolean samePlugin = this.plugin.getDescription().getName().equals(description.getName());
+        if (primary && !samePlugin) {
+            return "The updater downloaded " + description.getName() + " instead of " + this.plugin.getDescription().getName() + ".";
+        }
+        if (samePlugin && this.versionLatest != null) {
+            final Version fileVersion = Version.parse(description.getVersion());
+            final boolean sameVersion = (fileVersion != null && this.version != null)
+                    ? fileVersion.equals(this.version)
+                    : this.versionLatest.replaceFirst("^[vV]", "").equals(description.getVersion());
+            if (!sameVersion) {
+                return "The updater downloaded version " + description.getVersion() + " of " + description.getName() + " instead of " + this.versionLatest + ".";
+            }
+        }
+        return null;
     }
 
     /**
@@ -653,13 +1176,7 @@ public class GitHubUpdater {
      * @return true if a file inside the plugins folder is named this.
      */
     private boolean pluginExists(String name) {
-        File[] plugins = listFilesOrError(new File("plugins"));
-        for (final File file : plugins) {
-            if (file.getName().equals(name)) {
-                return true;
-            }
-        }
-        return false;
+        return new File(this.plugin.getDataFolder().getParentFile(), name).exists();
     }
 
     /**
@@ -734,24 +1251,14 @@ public class GitHubUpdater {
     }
 
     /**
-     * Make a connection to the hexosse.github.com API and request the newest file's details.
+     * Request the newest file's details from the fastest healthy release source.
      *
      * @return true if successful.
      */
     private boolean read()
     {
         try {
-            final URLConnection conn = this.url.openConnection();
-            conn.setConnectTimeout(6000);
-
-            conn.addRequestProperty("Accept", "application/vnd.github.v3+json");
-            conn.addRequestProperty("User-Agent", GitHubUpdater.USER_AGENT);
-            conn.setDoOutput(true);
-
-            final BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-            final String response = reader.readLine();
-
-            final JSONArray responseArray = (JSONArray) JSONValue.parse(response);
+            final JSONArray responseArray = this.sources.getReleases(this.repository);
 
             if (responseArray.isEmpty()) {
                 this.plugin.getLogger().warning("The updater could not find any files on repositry " + this.repository);
@@ -759,30 +1266,61 @@ public class GitHubUpdater {
                 return false;
             }
 
-            JSONObject latestUpdate = (JSONObject) responseArray.get(0);
-            this.versionLatest = (String) latestUpdate.get(GitHubUpdater.VERSION_VALUE);
-            this.version = Version.parse(this.versionLatest);
-            this.versionType = ( (Boolean)latestUpdate.get(GitHubUpdater.TYPE_DRAFT_VALUE)==true ? ReleaseType.DRAFT : ((Boolean)latestUpdate.get(GitHubUpdater.TYPE_PRERELEASE_VALUE)==true ? ReleaseType.PRERELEASE : (ReleaseType.RELEASE)) );
-
-            final JSONArray assetsArray = (JSONArray) JSONValue.parse(latestUpdate.get(GitHubUpdater.ASSETS_VALUE).toString());
+            // Take the newest release with an accepted type and a matching asset
+            JSONObject latestUpdate = null;
+            JSONArray assetsArray = null;
+            JSONObject latestAssetUpdate = null;
+            for (final Object release : responseArray) {
+                final JSONObject update = (JSONObject) release;
+                final ReleaseType type = Boolean.TRUE.equals(update.get(GitHubUpdater.TYPE_DRAFT_VALUE)) ? ReleaseType.DRAFT : (Boolean.TRUE.equals(update.get(GitHubUpdater.TYPE_PRERELEASE_VALUE)) ? ReleaseType.PRERELEASE : ReleaseType.RELEASE);
+                if (!this.selector.accepts(type) || !(update.get(GitHubUpdater.ASSETS_VALUE) instanceof JSONArray)) {
+                    continue;
+                }
+                final JSONArray assets = (JSONArray) update.get(GitHubUpdater.ASSETS_VALUE);
+                final JSONObject asset = this.selector.select(assets);
+                if (asset != null) {
+                    latestUpdate = update;
+                    assetsArray = assets;
+                    latestAssetUpdate = asset;
+                    this.versionType = type;
+                    break;
+                }
+            }
 
-            if (assetsArray.isEmpty()) {
+            if (latestUpdate == null) {
                 this.plugin.getLogger().warning("The updater could not find any files on repositry " + this.repository);
                 this.result = UpdateResult.FAIL_BADID;
                 return false;
             }
 
-            JSONObject latestAssetUpdate = (JSONObject) assetsArray.get(assetsArray.size() - 1);
+            this.versionLatest = (String) latestUpdate.get(GitHubUpdater.VERSION_VALUE);
+            this.version = Version.parse(this.versionLatest);
             this.versionLink = (String)latestAssetUpdate.get(GitHubUpdater.LINK_VALUE);
 
+            final String deltaName = latestAssetUpdate.get(GitHubUpdater.NAME_VALUE) + DeltaPatcher.SUFFIX;
+            for (final Object asset : assetsArray) {
+                if (deltaName.equals(((JSONObject) asset).get(GitHubUpdater.NAME_VALUE))) {
+                    this.deltaLink = (String) ((JSONObject) asset).get(GitHubUpdater.LINK_VALUE);
+                }
+            }
+
+            // Companion assets of the same release
+            for (final AssetSelector companion : this.companions) {
+                final JSONObject asset = companion.select(assetsArray);
+                final String link = asset != null ? (String) asset.get(GitHubUpdater.LINK_VALUE) : null;
+                if (link != null && !link.equals(this.versionLink) && !this.companionLinks.contains(link)) {
+                    this.companionLinks.add(link);
+                }
+            }
+
             return true;
         } catch (final IOException e) {
-            if (e.getMessage().contains("HTTP response code: 403")) {
-                this.plugin.getLogger().severe("hexosse.github.com rejected the API key provided in plugins/Updater/config.yml");
+            if (e.getMessage() != null && e.getMessage().contains("HTTP response code: 403")) {
+                this.plugin.getLogger().severe("The release source rejected the request, the API rate limit may be exceeded.");
                 this.plugin.getLogger().severe("Please double-check your configuration to ensure it is correct.");
                 this.result = UpdateResult.FAIL_API;
             } else {
-                this.plugin.getLogger().severe("The updater could not contact hexosse.github.com for updating.");
+                this.plugin.getLogger().severe("The updater could not contact " + this.sources.getSources() + " for updating.");
                 this.plugin.getLogger().severe("If you have not recently modified your configuration and this is the first time you are seeing this message, the site may be experiencing temporary downtime.");
                 this.result = UpdateResult.FAIL_DBO;
             }
@@ -802,6 +1340,16 @@ public class GitHubUpdater {
         }
     }
 
+    /**
+     * Get the name of a remote file from its link.
+     *
+     * @param link the link of the remote file.
+     * @return the last part of the link.
+     */
+    private String getFileName(String link) {
+        return link.substring(link.lastIndexOf("/") + 1);
+    }
+
     private File[] listFilesOrError(File folder) {
         File[] contents = folder.listFiles();
         if (contents == null) {
@@ -824,6 +1372,18 @@ public class GitHubUpdater {
         void onFinish(GitHubUpdater updater);
     }
 
+    private class ProgressListener implements DownloadListener {
+        @Override
+        public synchronized void onProgress(DownloadProgress progress) {
+            if (announce && !progress.isDone()) {
+                plugin.getLogger().info("Downloading update: " + progress + ".");
+            }
+            if (downloadListener != null) {
+                downloadListener.onProgress(progress);
+            }
+        }
+    }
+
     private class UpdateRunnable implements Runnable {
         @Override
         public void run() {
@@ -833,16 +1393,11 @@ public class GitHubUpdater {
 
     private void runUpdater()
     {
-        if (this.url != null && (this.read() && this.versionCheck()))
+        if (this.result == UpdateResult.SUCCESS && this.read() && this.versionCheck())
         {
             // Obtain the results of the project's file feed
             if ((this.versionLink != null) && (this.type != UpdateType.NO_DOWNLOAD)) {
-                String name = this.versionLink; //this.file.getName();
-                // If it's a zip file, it shouldn't be downloaded as the plugin's name
-                if (this.versionLink.endsWith(".zip")) {
-                    name = this.versionLink.substring(this.versionLink.lastIndexOf("/") + 1);
-                }
-                this.saveFile(name);
+                this.saveFiles();
             } else {
                 this.result = UpdateResult.UPDATE_AVAILABLE;
             }
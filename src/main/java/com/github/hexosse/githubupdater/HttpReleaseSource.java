@@ -0,0 +1,98 @@
+package com.github.hexosse.githubupdater;
+
+
+/*
+ * Copyright 2016 Hexosse
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONValue;
+
+/**
+ * Get releases from an HTTP server returning JSON in the GitHub releases API format, such as a mirror.
+ *
+ * @author hexoose
+ * @version 1.0
+ */
+public class HttpReleaseSource implements ReleaseSource {
+
+    // Placeholder replaced by the repository in the url
+    protected static final String REPOSITORY_PLACEHOLDER = "{{ REPOSITORY }}";
+    // Default timeouts
+    private static final int CONNECT_TIMEOUT = 6000;
+    private static final int READ_TIMEOUT = 10000;
+    // Response encoding
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final String name;
+    private final String url;
+
+    /**
+     * Create a new HTTP source.
+     *
+     * @param name Name of the source, used in logs.
+     * @param url  Url of the releases, "{{ REPOSITORY }}" is replaced by the repository
+     *             (for example "http://mirror.local/repos/{{ REPOSITORY }}/releases").
+     */
+    public HttpReleaseSource(String name, String url) {
+        this.name = name;
+        this.url = url;
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public JSONArray getReleases(String repository) throws IOException {
+        final URLConnection conn = new URL(this.url.replace(REPOSITORY_PLACEHOLDER, repository)).openConnection();
+        conn.setConnectTimeout(CONNECT_TIMEOUT);
+        conn.setReadTimeout(READ_TIMEOUT);
+        this.prepare(conn);
+
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream(), UTF8));
+        try {
+            final Object response = JSONValue.parse(reader);
+            if (!(response instanceof JSONArray)) {
+                throw new IOException("Invalid response from " + this.name);
+            }
+            return (JSONArray) response;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Called before the request is sent, to add headers.
+     *
+     * @param conn The connection to the server.
+     */
+    protected void prepare(URLConnection conn) {
+        conn.addRequestProperty("Accept", "application/json");
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+}
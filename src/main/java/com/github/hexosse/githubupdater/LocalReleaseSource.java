@@ -0,0 +1,131 @@
+package com.github.hexosse.githubupdater;
+
+
+/*
+ * Copyright 2016 Hexosse
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Get releases from a local or network (NFS, SMB) directory.
+ * <p>
+ * The directory holds one folder per repository and one sub folder per release, named after the tag:
+ * {@code <directory>/<owner>/<repository>/<tag>/<assets>}.
+ * An empty {@code .prerelease} or {@code .draft} file in a release folder sets its type.
+ * Releases are sorted by version, newest first.
+ * </p>
+ *
+ * @author hexoose
+ * @version 1.0
+ */
+public class LocalReleaseSource implements ReleaseSource {
+
+    // Marker files of the release type
+    private static final String PRERELEASE_MARKER = ".prerelease";
+    private static final String DRAFT_MARKER = ".draft";
+
+    private final File directory;
+
+    /**
+     * Create a new local source.
+     *
+     * @param directory The directory holding the repositories.
+     */
+    public LocalReleaseSource(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public String getName() {
+        return this.directory.getPath();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public JSONArray getReleases(String repository) throws IOException {
+        final File repositoryFolder = new File(this.directory, repository);
+        final File[] tags = repositoryFolder.listFiles();
+        if (tags == null) {
+            throw new FileNotFoundException("No repository folder at " + repositoryFolder.getAbsolutePath());
+        }
+
+        Arrays.sort(tags, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                final GitHubUpdater.Version va = GitHubUpdater.Version.parse(a.getName());
+                final GitHubUpdater.Version vb = GitHubUpdater.Version.parse(b.getName());
+                if (va != null && vb != null) {
+                    return va.equals(vb) ? 0 : (va.compare(vb) ? 1 : -1);
+                }
+                if (va != null || vb != null) {
+                    return va != null ? -1 : 1;
+                }
+                return Long.compare(b.lastModified(), a.lastModified());
+            }
+        });
+
+        final JSONArray releases = new JSONArray();
+        for (final File tag : tags) {
+            final File[] files = tag.listFiles();
+            if (files == null) {
+                continue;
+            }
+
+            final JSONArray assets = new JSONArray();
+            for (final File file : files) {
+                if (!file.isFile() || file.getName().startsWith(".")) {
+                    continue;
+                }
+                final JSONObject asset = new JSONObject();
+                asset.put(AssetSelector.NAME_VALUE, file.getName());
+                asset.put(AssetSelector.SIZE_VALUE, file.length());
+                asset.put(AssetSelector.CONTENT_TYPE_VALUE, contentType(file.getName()));
+                asset.put("browser_download_url", file.toURI().toURL().toString());
+                assets.add(asset);
+            }
+
+            final JSONObject release = new JSONObject();
+            release.put("tag_name", tag.getName());
+            release.put("prerelease", new File(tag, PRERELEASE_MARKER).exists());
+            release.put("draft", new File(tag, DRAFT_MARKER).exists());
+            release.put("assets", assets);
+            releases.add(release);
+        }
+        return releases;
+    }
+
+    private static String contentType(String name) {
+        if (name.endsWith(".jar")) {
+            return "application/java-archive";
+        }
+        if (name.endsWith(".zip")) {
+            return "application/zip";
+        }
+        return "application/octet-stream";
+    }
+
+    @Override
+    public String toString() {
+        return this.getName();
+    }
+}
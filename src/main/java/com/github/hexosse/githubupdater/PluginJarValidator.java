@@ -0,0 +1,300 @@
+package com.github.hexosse.githubupdater;
+
+
+/*
+ * Copyright 2016 Hexosse
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.bukkit.plugin.InvalidDescriptionException;
+import org.bukkit.plugin.PluginDescriptionFile;
+
+/**
+ * Check that a downloaded jar is a readable plugin without extracting it.
+ * <p>
+ * Only the zip central directory and the {@code plugin.yml} entry are read, using positional reads
+ * on the file channel (the file is not mapped so that it can be deleted right after on Windows).
+ * Every entry is checked to end before the central directory, which catches truncated downloads.
+ * Jars with more than 65535 entries or over 4 GB, such as large shaded jars, are read through their
+ * ZIP64 records.
+ * </p>
+ *
+ * @author hexoose
+ * @version 1.0
+ */
+final class PluginJarValidator {
+
+    // Plugin description entry
+    private static final String DESCRIPTION = "plugin.yml";
+    // End of central directory record
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int MAX_COMMENT = 0xFFFF;
+    // ZIP64 end of central directory locator and record
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_EOCD_SIZE = 56;
+    // ZIP64 extended information extra field
+    private static final int ZIP64_EXTRA = 0x0001;
+    // Values meaning that the real value is in the ZIP64 records
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    private static final long ZIP64_MAGIC_VALUE = 0xFFFFFFFFL;
+    // Central directory file header
+    private static final int CEN_SIGNATURE = 0x02014b50;
+    private static final int CEN_SIZE = 46;
+    // Local file header
+    private static final int LOC_SIGNATURE = 0x04034b50;
+    private static final int LOC_SIZE = 30;
+    // Compression methods
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    // plugin.yml should never be that big
+    private static final int MAX_DESCRIPTION = 1024 * 1024;
+    // Entry name encoding
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private PluginJarValidator() {
+    }
+
+    /**
+     * Read the plugin description of a jar.
+     *
+     * @param jar The jar to check.
+     * @return The plugin description.
+     * @throws IOException if the jar is not a complete zip file or has no plugin.yml.
+     * @throws InvalidDescriptionException if the plugin.yml is invalid.
+     */
+    static PluginDescriptionFile readDescription(File jar) throws IOException, InvalidDescriptionException {
+        RandomAccessFile raf = new RandomAccessFile(jar, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < EOCD_SIZE) {
+                throw new IOException("File is too small to be a jar");
+            }
+
+            // Find the end of central directory record, looking backward over a possible comment
+            int tailSize = (int) Math.min(size, EOCD_SIZE + MAX_COMMENT);
+            ByteBuffer tail = read(channel, size - tailSize, tailSize);
+            int eocd = -1;
+            for (int i = tailSize - EOCD_SIZE; i >= 0; i--) {
+                if (tail.getInt(i) == EOCD_SIGNATURE && i + EOCD_SIZE + (tail.getShort(i + 20) & 0xFFFF) == tailSize) {
+                    eocd = i;
+                    break;
+                }
+            }
+            if (eocd == -1) {
+                throw new IOException("End of central directory not found, the file is truncated or is not a jar");
+            }
+
+            long cenEnd = size - tailSize + eocd;
+            long entries = tail.getShort(eocd + 10) & 0xFFFF;
+            long cenSize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+            long cenOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+            boolean zip64 = false;
+            if (entries == ZIP64_MAGIC_COUNT || cenSize == ZIP64_MAGIC_VALUE || cenOffset == ZIP64_MAGIC_VALUE) {
+                // The real values may be in the ZIP64 end of central directory record
+                if (cenEnd >= ZIP64_LOCATOR_SIZE) {
+                    ByteBuffer locator = read(channel, cenEnd - ZIP64_LOCATOR_SIZE, ZIP64_LOCATOR_SIZE);
+                    if (locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                        long zip64Offset = locator.getLong(8);
+                        if (zip64Offset < 0 || zip64Offset + ZIP64_EOCD_SIZE > cenEnd - ZIP64_LOCATOR_SIZE) {
+                            throw new IOException("ZIP64 end of central directory is out of the file bounds");
+                        }
+                        ByteBuffer record = read(channel, zip64Offset, ZIP64_EOCD_SIZE);
+                        if (record.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+                            throw new IOException("Invalid ZIP64 end of central directory");
+                        }
+                        entries = record.getLong(32);
+                        cenSize = record.getLong(40);
+                        cenOffset = record.getLong(48);
+                        cenEnd = zip64Offset;
+                        zip64 = true;
+                    } else if (entries == ZIP64_MAGIC_COUNT) {
+                        // Not a ZIP64 file, the entries are counted while walking
+                        entries = -1;
+                    }
+                }
+            }
+            if (cenOffset < 0 || cenSize < 0 || cenOffset + cenSize > cenEnd || cenSize > Integer.MAX_VALUE) {
+                throw new IOException("Central directory is out of the file bounds");
+            }
+
+            // Walk the central directory until its size is used up, the entry count may not fit in the record
+            ByteBuffer cen = read(channel, cenOffset, (int) cenSize);
+            int pos = 0;
+            long count = 0;
+            long descOffset = -1, descCompressed = 0, descSize = 0, descCrc = 0;
+            int descMethod = 0;
+            while (pos < cenSize) {
+                if (pos + CEN_SIZE > cenSize || cen.getInt(pos) != CEN_SIGNATURE) {
+                    throw new IOException("Invalid central directory entry");
+                }
+                int method = cen.getShort(pos + 10) & 0xFFFF;
+                long crc = cen.getInt(pos + 16) & 0xFFFFFFFFL;
+                long compressed = cen.getInt(pos + 20) & 0xFFFFFFFFL;
+                long uncompressed = cen.getInt(pos + 24) & 0xFFFFFFFFL;
+                int nameLength = cen.getShort(pos + 28) & 0xFFFF;
+                int extraLength = cen.getShort(pos + 30) & 0xFFFF;
+                int commentLength = cen.getShort(pos + 32) & 0xFFFF;
+                long offset = cen.getInt(pos + 42) & 0xFFFFFFFFL;
+                if (pos + CEN_SIZE + nameLength + extraLength > cenSize) {
+                    throw new IOException("Invalid central directory entry");
+                }
+                if (uncompressed == ZIP64_MAGIC_VALUE || compressed == ZIP64_MAGIC_VALUE || offset == ZIP64_MAGIC_VALUE) {
+                    // The real values follow in the ZIP64 extra field, in this order, only when they do not fit
+                    int extra = findExtra(cen, pos + CEN_SIZE + nameLength, extraLength, ZIP64_EXTRA);
+                    if (extra == -1) {
+                        throw new IOException("Missing ZIP64 extra field");
+                    }
+                    int extraEnd = extra + 4 + (cen.getShort(extra + 2) & 0xFFFF);
+                    extra += 4;
+                    if (uncompressed == ZIP64_MAGIC_VALUE && extra + 8 <= extraEnd) {
+                        uncompressed = cen.getLong(extra);
+                        extra += 8;
+                    }
+                    if (compressed == ZIP64_MAGIC_VALUE && extra + 8 <= extraEnd) {
+                        compressed = cen.getLong(extra);
+                        extra += 8;
+                    }
+                    if (offset == ZIP64_MAGIC_VALUE && extra + 8 <= extraEnd) {
+                        offset = cen.getLong(extra);
+                    }
+                }
+                if (offset < 0 || compressed < 0 || offset + LOC_SIZE + compressed > cenOffset) {
+                    throw new IOException("Entry data is out of the file bounds");
+                }
+                if (nameLength == DESCRIPTION.length() && DESCRIPTION.equals(name(cen, pos + CEN_SIZE, nameLength))) {
+                    descOffset = offset;
+                    descMethod = method;
+                    descCompressed = compressed;
+                    descSize = uncompressed;
+                    descCrc = crc;
+                }
+                pos += CEN_SIZE + nameLength + extraLength + commentLength;
+                count++;
+            }
+            // Some tools write the count of large archives without ZIP64, truncated to 16 bits
+            if (entries != -1 && (zip64 ? count : count & 0xFFFF) != entries) {
+                throw new IOException("Central directory has " + count + " entries instead of " + entries);
+            }
+            if (descOffset == -1) {
+                throw new IOException("No " + DESCRIPTION + " found");
+            }
+            if (descSize > MAX_DESCRIPTION || descCompressed > MAX_DESCRIPTION) {
+                throw new IOException(DESCRIPTION + " is too big");
+            }
+
+            // Read plugin.yml data through its local header
+            ByteBuffer loc = read(channel, descOffset, LOC_SIZE);
+            if (loc.getInt(0) != LOC_SIGNATURE) {
+                throw new IOException("Invalid local header for " + DESCRIPTION);
+            }
+            long dataOffset = descOffset + LOC_SIZE + (loc.getShort(26) & 0xFFFF) + (loc.getShort(28) & 0xFFFF);
+            if (dataOffset + descCompressed > cenOffset) {
+                throw new IOException("Entry data is out of the file bounds");
+            }
+            ByteBuffer data = read(channel, dataOffset, (int) descCompressed);
+            byte[] description = inflate(data.array(), descMethod, (int) descSize);
+
+            CRC32 crc = new CRC32();
+            crc.update(description);
+            if (crc.getValue() != descCrc) {
+                throw new IOException("Corrupted " + DESCRIPTION);
+            }
+            return new PluginDescriptionFile(new ByteArrayInputStream(description));
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Find an extra field by its id.
+     *
+     * @return the position of the extra field header, or -1.
+     */
+    private static int findExtra(ByteBuffer buffer, int offset, int length, int id) {
+        int pos = offset;
+        while (pos + 4 <= offset + length) {
+            int size = buffer.getShort(pos + 2) & 0xFFFF;
+            if ((buffer.getShort(pos) & 0xFFFF) == id) {
+                return pos + 4 + size <= offset + length ? pos : -1;
+            }
+            pos += 4 + size;
+        }
+        return -1;
+    }
+
+    private static String name(ByteBuffer buffer, int offset, int length) {
+        return new String(buffer.array(), offset, length, UTF8);
+    }
+
+    private static byte[] inflate(byte[] data, int method, int size) throws IOException {
+        if (method == STORED) {
+            return data;
+        }
+        if (method != DEFLATED) {
+            throw new IOException("Unsupported compression method " + method + " for " + DESCRIPTION);
+        }
+
+        Inflater inflater = new Inflater(true);
+        try {
+            // A dummy byte is needed at the end when inflating without zlib header
+            byte[] input = new byte[data.length + 1];
+            System.arraycopy(data, 0, input, 0, data.length);
+            inflater.setInput(input);
+            byte[] output = new byte[size];
+            int count = 0;
+            while (count < size && !inflater.finished()) {
+                int n = inflater.inflate(output, count, size - count);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                count += n;
+            }
+            if (count != size) {
+                throw new IOException("Corrupted " + DESCRIPTION);
+            }
+            return output;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted " + DESCRIPTION, e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.hexosse.githubupdater;
+
+
+/*
+ * Copyright 2016 Hexosse
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Throttle the progress events of a download.
+ * <p>
+ * {@link #update(long)} only compares the downloaded bytes with a threshold, so it can be called for every
+ * chunk. The clock is read once the threshold is reached, and an event is sent when the percentage moved
+ * by the configured step (or, when the length is unknown, when the interval elapsed) and the interval
+ * since the last event elapsed.
+ * </p>
+ *
+ * @author hexoose
+ * @version 1.0
+ */
+final class ProgressTracker {
+
+    // Bytes between two clock reads when the length is unknown or the percent step is large
+    private static final long CHECK_BYTES = 64 * 1024;
+
+    private final DownloadListener listener;
+    private final String fileName;
+    private final long length;
+    private final long intervalNanos;
+    private final long stepBytes;
+    private final long start;
+
+    private long nextCheck;
+    private long nextStep;
+    private long lastEvent;
+
+    /**
+     * @param listener     Listener to notify.
+     * @param fileName     Name of the downloaded file.
+     * @param length       Size of the file, or -1 if unknown.
+     * @param intervalMs   Minimal delay between two events.
+     * @param percentStep  Minimal percentage between two events when the length is known.
+     */
+    ProgressTracker(DownloadListener listener, String fileName, long length, long intervalMs, int percentStep) {
+        this.listener = listener;
+        this.fileName = fileName;
+        this.length = length;
+        this.intervalNanos = intervalMs * 1000000L;
+        this.stepBytes = length > 0 ? Math.max(1, (length * Math.max(1, percentStep)) / 100) : CHECK_BYTES;
+        this.start = System.nanoTime();
+        this.lastEvent = this.start;
+        this.nextStep = this.stepBytes;
+        this.nextCheck = Math.min(this.nextStep, CHECK_BYTES);
+    }
+
+    /**
+     * Called after each chunk.
+     *
+     * @param bytes Number of bytes downloaded so far.
+     */
+    void update(long bytes) {
+        if (bytes < this.nextCheck) {
+            return;
+        }
+        this.nextCheck = bytes + CHECK_BYTES;
+
+        final long now = System.nanoTime();
+        if (now - this.lastEvent < this.intervalNanos) {
+            return;
+        }
+        if (this.length > 0 && bytes < this.nextStep) {
+            this.nextCheck = Math.min(this.nextCheck, this.nextStep);
+            return;
+        }
+        this.lastEvent = now;
+        this.nextStep = bytes + this.stepBytes;
+        this.nextCheck = Math.min(this.nextCheck, this.nextStep);
+        this.listener.onProgress(new DownloadProgress(this.fileName, bytes, this.length, this.rate(bytes, now), false));
+    }
+
+    /**
+     * Called once the download is complete.
+     *
+     * @param bytes Number of bytes downloaded.
+     */
+    void done(long bytes) {
+        this.listener.onProgress(new DownloadProgress(this.fileName, bytes, this.length, this.rate(bytes, System.nanoTime()), true));
+    }
+
+    private long rate(long bytes, long now) {
+        final long elapsed = now - this.start;
+        return elapsed > 0 ? (long) (bytes * 1e9 / elapsed) : 0;
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.hexosse.githubupdater;
+
+
+/*
+ * Copyright 2016 Hexosse
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+
+import org.json.simple.JSONArray;
+
+/**
+ * A place the updater can get releases from.
+ * <p>
+ * Releases are returned in the format of the GitHub releases API: an array of releases, newest first,
+ * each with "tag_name", "prerelease", "draft" and an "assets" array of objects with "name",
+ * "browser_download_url", "content_type" and "size". Download links can use any protocol supported
+ * by {@link java.net.URL}, including file: links.
+ * </p>
+ *
+ * @author hexoose
+ * @version 1.0
+ * @see GitHubReleaseSource
+ * @see HttpReleaseSource
+ * @see LocalReleaseSource
+ */
+public interface ReleaseSource {
+
+    /**
+     * @return name of the source, used in logs.
+     */
+    String getName();
+
+    /**
+     * Get the releases of a repository.
+     *
+     * @param repository The repository, such as "hexosse/GitHubUpdater".
+     * @return the releases, newest first.
+     * @throws IOException if the source could not be reached or returned an invalid response.
+     */
+    JSONArray getReleases(String repository) throws IOException;
+}
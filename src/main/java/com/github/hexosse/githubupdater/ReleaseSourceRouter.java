@@ -0,0 +1,196 @@
+package com.github.hexosse.githubupdater;
+
+
+/*
+ * Copyright 2016 Hexosse
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.json.simple.JSONArray;
+
+/**
+ * Route release requests to the fastest healthy {@link ReleaseSource}.
+ * <p>
+ * The router keeps the average latency and the failures of each source. Sources are tried from the
+ * fastest to the slowest; a source that failed is put aside for a delay growing with its consecutive
+ * failures, and only tried again before that if every other source failed.
+ * Share the same router between updaters to keep the statistics from one check to the next.
+ * </p>
+ *
+ * @author hexoose
+ * @version 1.0
+ */
+public class ReleaseSourceRouter {
+
+    // Weight of the last request in the average latency
+    private static final double LATENCY_WEIGHT = 0.3;
+    // Delay before trying a failing source again
+    private static final long RETRY_DELAY = 30 * 1000L;
+    private static final long MAX_RETRY_DELAY = 30 * 60 * 1000L;
+
+    private final List<Statistics> statistics = new ArrayList<Statistics>();
+
+    /**
+     * Create a new router.
+     *
+     * @param sources Sources to route to. Sources which have never been used are tried first, in this order.
+     */
+    public ReleaseSourceRouter(ReleaseSource... sources) {
+        for (ReleaseSource source : sources) {
+            this.statistics.add(new Statistics(source));
+        }
+    }
+
+    /**
+     * Get the releases of a repository from the fastest healthy source.
+     *
+     * @param repository The repository, such as "hexosse/GitHubUpdater".
+     * @return the releases, newest first.
+     * @throws IOException the error of the last source tried if every source failed.
+     */
+    public JSONArray getReleases(String repository) throws IOException {
+        IOException failure = null;
+        for (Statistics stats : this.rank()) {
+            final long start = System.nanoTime();
+            try {
+                final JSONArray releases = stats.source.getReleases(repository);
+                stats.success(System.nanoTime() - start);
+                return releases;
+            } catch (IOException e) {
+                stats.failure();
+                failure = e;
+            }
+        }
+        throw failure != null ? failure : new IOException("No release source");
+    }
+
+    /**
+     * @return sources from the one that will be tried first to the one that will be tried last.
+     */
+    public List<ReleaseSource> getSources() {
+        final List<ReleaseSource> sources = new ArrayList<ReleaseSource>();
+        for (Statistics stats : this.rank()) {
+            sources.add(stats.source);
+        }
+        return sources;
+    }
+
+    /**
+     * Get the average latency of a source.
+     *
+     * @param source A source of this router.
+     * @return average latency in milliseconds, or -1 if the source has never answered.
+     */
+    public long getLatency(ReleaseSource source) {
+        for (Statistics stats : this.statistics) {
+            if (stats.source == source) {
+                synchronized (stats) {
+                    return stats.latency < 0 ? -1 : (long) (stats.latency / 1000000);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the number of consecutive failures of a source.
+     *
+     * @param source A source of this router.
+     * @return the number of failures since the last success.
+     */
+    public int getFailures(ReleaseSource source) {
+        for (Statistics stats : this.statistics) {
+            if (stats.source == source) {
+                synchronized (stats) {
+                    return stats.failures;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private List<Statistics> rank() {
+        final long now = System.currentTimeMillis();
+        final List<Rank> ranks = new ArrayList<Rank>(this.statistics.size());
+        for (Statistics stats : this.statistics) {
+            synchronized (stats) {
+                ranks.add(new Rank(stats, stats.retryAt > now ? stats.retryAt : 0, stats.latency));
+            }
+        }
+
+        // Healthy sources by latency, then failing sources by the time they can be tried again
+        Collections.sort(ranks, new Comparator<Rank>() {
+            @Override
+            public int compare(Rank a, Rank b) {
+                if (a.retryAt != b.retryAt) {
+                    return Long.compare(a.retryAt, b.retryAt);
+                }
+                return Double.compare(a.latency, b.latency);
+            }
+        });
+
+        final List<Statistics> sorted = new ArrayList<Statistics>(ranks.size());
+        for (Rank rank : ranks) {
+            sorted.add(rank.stats);
+        }
+        return sorted;
+    }
+
+    /**
+     * Values of a source at the time sources are sorted.
+     */
+    private static class Rank {
+        private final Statistics stats;
+        private final long retryAt;
+        private final double latency;
+
+        private Rank(Statistics stats, long retryAt, double latency) {
+            this.stats = stats;
+            this.retryAt = retryAt;
+            this.latency = latency;
+        }
+    }
+
+    /**
+     * Latency and failures of one source.
+     */
+    private static class Statistics {
+        private final ReleaseSource source;
+        // Average latency in nanoseconds, -1 if never measured
+        private double latency = -1;
+        private int failures = 0;
+        private long retryAt = 0;
+
+        private Statistics(ReleaseSource source) {
+            this.source = source;
+        }
+
+        private synchronized void success(long nanos) {
+            this.latency = this.latency < 0 ? nanos : (LATENCY_WEIGHT * nanos + (1 - LATENCY_WEIGHT) * this.latency);
+            this.failures = 0;
+            this.retryAt = 0;
+        }
+
+        private synchronized void failure() {
+            this.failures++;
+            this.retryAt = System.currentTimeMillis() + Math.min(MAX_RETRY_DELAY, RETRY_DELAY << Math.min(this.failures - 1, 16));
+        }
+    }
+}
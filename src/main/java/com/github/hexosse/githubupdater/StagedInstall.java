@@ -0,0 +1,358 @@
+package com.github.hexosse.githubupdater;
+
+
+/*
+ * Copyright 2016 Hexosse
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Files of an update prepared in a staging folder, installed together once every asset is ready.
+ * <p>
+ * The install is crash-safe. Before anything is moved, every planned move is written to a journal and
+ * synced to disk. Files replaced by the install are first moved to a backup folder inside the staging
+ * folder, then each staged file is moved to its target with an atomic rename, and each finished move is
+ * recorded in the journal. If the server stops in the middle, {@link #recover(File)} completes the
+ * install on the next start when every remaining staged file is still there, or restores the backups.
+ * </p>
+ *
+ * @author hexoose
+ * @version 1.0
+ */
+final class StagedInstall {
+
+    // Journal records
+    private static final String HEADER = "GitHubUpdater-Journal: 1";
+    private static final String STAGING = "staging\t";
+    private static final String MOVE = "move\t";
+    private static final String BEGIN = "begin";
+    private static final String DONE = "done\t";
+    private static final String COMMITTED = "committed";
+    // No backup for a move
+    private static final String NONE = "-";
+    // Backup folder inside the staging folder
+    private static final String BACKUP = ".backup";
+    // Journal encoding
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    // Journals of the installs being committed, which must not be recovered
+    private static final Set<File> COMMITTING = new HashSet<File>();
+
+    private final File folder;
+    private final File journal;
+    // Staged file and its target, in the order they were added
+    private final List<File[]> moves = new ArrayList<File[]>();
+
+    /**
+     * @param folder  The staging folder, in the same file system as the targets.
+     * @param journal The journal file, outside of the staging folder.
+     */
+    StagedInstall(File folder, File journal) {
+        this.folder = folder;
+        this.journal = journal;
+    }
+
+    /**
+     * @return the staging folder.
+     */
+    File getFolder() {
+        return this.folder;
+    }
+
+    /**
+     * Add a prepared file to the install. Can be called from several threads.
+     *
+     * @param staged The file in the staging folder.
+     * @param target Where the file is installed.
+     */
+    synchronized void add(File staged, File target) {
+        this.moves.add(new File[] { staged, target, null });
+    }
+
+    /**
+     * @return number of files to install.
+     */
+    synchronized int size() {
+        return this.moves.size();
+    }
+
+    /**
+     * Move every staged file to its target, keeping the replaced files until every move is done.
+     * If a move fails, the moves already done are rolled back.
+     *
+     * @throws IOException if a file could not be moved.
+     */
+    synchronized void commit() throws IOException {
+        final File backups = new File(this.folder, BACKUP);
+        for (int i = 0; i < this.moves.size(); i++) {
+            final File[] move = this.moves.get(i);
+            move[2] = move[1].exists() ? new File(backups, Integer.toString(i)) : null;
+        }
+
+        synchronized (COMMITTING) {
+            COMMITTING.add(this.journal.getAbsoluteFile());
+        }
+        try {
+            this.writeAheadAndMove();
+            delete(this.journal);
+        } finally {
+            synchronized (COMMITTING) {
+                COMMITTING.remove(this.journal.getAbsoluteFile());
+            }
+        }
+    }
+
+    /**
+     * Write every move to the journal, then do them one by one.
+     */
+    private void writeAheadAndMove() throws IOException {
+        // Write ahead every move
+        final Journal out = new Journal(this.journal);
+        try {
+            out.append(HEADER);
+            out.append(STAGING + this.folder.getAbsolutePath());
+            for (File[] move : this.moves) {
+                out.append(MOVE + move[0].getAbsolutePath() + "\t" + move[1].getAbsolutePath() + "\t" + (move[2] != null ? move[2].getAbsolutePath() : NONE));
+            }
+            out.append(BEGIN);
+            out.sync();
+
+            for (int i = 0; i < this.moves.size(); i++) {
+                try {
+                    apply(this.moves.get(i));
+                } catch (IOException e) {
+                    out.close();
+                    // If the rollback fails too, the journal is kept for the next start
+                    rollback(this.moves);
+                    delete(this.journal);
+                    throw e;
+                }
+                out.append(DONE + i);
+                out.sync();
+            }
+            out.append(COMMITTED);
+            out.sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Delete the staging folder and what is left in it, unless it is still needed to recover the install.
+     *
+     * @return true if the staging folder was deleted.
+     */
+    boolean discard() {
+        return !this.journal.exists() && delete(this.folder);
+    }
+
+    /**
+     * Finish or undo an install interrupted by a crash.
+     *
+     * @param journal The journal file.
+     * @return "rolled forward" or "rolled back" if an install was recovered, null if there was nothing to do
+     * or the install is being committed.
+     * @throws IOException if the journal could not be read or a file could not be moved back.
+     */
+    static String recover(File journal) throws IOException {
+        if (!journal.isFile()) {
+            return null;
+        }
+        synchronized (COMMITTING) {
+            if (COMMITTING.contains(journal.getAbsoluteFile())) {
+                return null;
+            }
+        }
+
+        File staging = null;
+        final List<File[]> moves = new ArrayList<File[]>();
+        final List<Integer> done = new ArrayList<Integer>();
+        boolean begun = false;
+        boolean committed = false;
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal), UTF8));
+        try {
+            // A torn header means the install stopped before anything was moved
+            final boolean valid = HEADER.equals(reader.readLine());
+            String line;
+            while (valid && (line = reader.readLine()) != null) {
+                if (line.startsWith(STAGING)) {
+                    staging = new File(line.substring(STAGING.length()));
+                } else if (line.startsWith(MOVE) && !begun) {
+                    final String[] parts = line.substring(MOVE.length()).split("\t");
+                    if (parts.length == 3) {
+                        moves.add(new File[] { new File(parts[0]), new File(parts[1]), NONE.equals(parts[2]) ? null : new File(parts[2]) });
+                    }
+                } else if (line.equals(BEGIN)) {
+                    begun = true;
+                } else if (line.startsWith(DONE)) {
+                    try {
+                        done.add(Integer.parseInt(line.substring(DONE.length())));
+                    } catch (NumberFormatException ignored) {
+                        // Torn write of the last record
+                    }
+                } else if (line.equals(COMMITTED)) {
+                    committed = true;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        String outcome = "rolled forward";
+        if (!begun) {
+            // Nothing was moved yet
+            outcome = "rolled back";
+        } else if (!committed) {
+            // Roll forward if every staged file which was not moved yet is still there
+            boolean complete = true;
+            for (int i = 0; i < moves.size(); i++) {
+                final File[] move = moves.get(i);
+                if (!done.contains(i) && !move[0].exists() && !(move[2] == null ? move[1].exists() : move[2].exists() && move[1].exists())) {
+                    complete = false;
+                }
+            }
+
+            if (complete) {
+                for (int i = 0; i < moves.size(); i++) {
+                    final File[] move = moves.get(i);
+                    if (!done.contains(i) && move[0].exists()) {
+                        apply(move);
+                    }
+                }
+            } else {
+                rollback(moves);
+                outcome = "rolled back";
+            }
+        }
+
+        if (staging != null) {
+            delete(staging);
+        }
+        delete(journal);
+        return outcome;
+    }
+
+    /**
+     * Move the target to its backup if needed, then the staged file to the target.
+     */
+    private static void apply(File[] move) throws IOException {
+        final File staged = move[0];
+        final File target = move[1];
+        final File backup = move[2];
+        if (backup != null && target.exists() && !backup.exists()) {
+            mkdirs(backup.getParentFile());
+            rename(target, backup);
+        }
+        mkdirs(target.getParentFile());
+        rename(staged, target);
+    }
+
+    /**
+     * Undo the moves, in reverse order. Moves which were not started are left as they are.
+     */
+    private static void rollback(List<File[]> moves) throws IOException {
+        IOException failure = null;
+        for (int i = moves.size() - 1; i >= 0; i--) {
+            final File[] move = moves.get(i);
+            final File staged = move[0];
+            final File target = move[1];
+            final File backup = move[2];
+            try {
+                if (backup != null) {
+                    if (backup.exists()) {
+                        // The target was replaced, or only moved away
+                        if (target.exists() && !staged.exists()) {
+                            rename(target, staged);
+                        }
+                        rename(backup, target);
+                    }
+                } else if (target.exists() && !staged.exists()) {
+                    // The target is a new file
+                    mkdirs(staged.getParentFile());
+                    rename(target, staged);
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static void rename(File from, File to) throws IOException {
+        try {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Not in the same file system
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void mkdirs(File folder) throws IOException {
+        if (folder != null && !folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Could not create " + folder.getAbsolutePath());
+        }
+    }
+
+    private static boolean delete(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        return !file.exists() || file.delete();
+    }
+
+    /**
+     * Append-only journal file, synced to disk on demand.
+     */
+    private static class Journal {
+        private final FileOutputStream out;
+        private final Writer writer;
+        private boolean closed = false;
+
+        private Journal(File file) throws IOException {
+            this.out = new FileOutputStream(file);
+            this.writer = new BufferedWriter(new OutputStreamWriter(this.out, UTF8));
+        }
+
+        private void append(String record) throws IOException {
+            this.writer.write(record);
+            this.writer.write('\n');
+        }
+
+        private void sync() throws IOException {
+            this.writer.flush();
+            this.out.getFD().sync();
+        }
+
+        private void close() throws IOException {
+            if (!this.closed) {
+                this.closed = true;
+                this.writer.close();
+            }
+        }
+    }
+}
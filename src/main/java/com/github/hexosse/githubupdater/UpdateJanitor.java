@@ -0,0 +1,300 @@
+package com.github.hexosse.githubupdater;
+
+
+/*
+ * Copyright 2016 Hexosse
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Remove the leftovers of previous updates from the update folder.
+ * <p>
+ * The updater registers every staging folder it creates, which holds the downloads and extracted files
+ * of an update, in a small index kept in the update folder, one per plugin. Files which are not in the
+ * index are never touched. Each run removes the entries older than the age budget and the staging
+ * folders nothing was written to for a few minutes, left by a crash or a download that could not be
+ * stopped, then the oldest entries while the registered files are over the size budget, deleting at
+ * most a given number of files so that a large leftover folder is cleaned over several runs.
+ * </p>
+ *
+ * @author hexoose
+ * @version 1.0
+ */
+final class UpdateJanitor {
+
+    // Updater files name, followed by the plugin name
+    private static final String METADATA_PREFIX = ".githubupdater-";
+    private static final String INDEX_SUFFIX = ".index";
+    // Staging folders are created in the update folder with this prefix
+    static final String STAGING_PREFIX = ".staging-";
+    // Staging folders not written to for that long are abandoned
+    private static final long STAGING_GRACE = 10 * 60 * 1000L;
+    // Index encoding
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File folder;
+    private final File index;
+    private final Logger logger;
+    private final long maxAge;
+    private final long maxSize;
+    private final int maxDeletions;
+
+    // Registered file names and the time they were registered at, oldest first
+    private final Map<String, Long> entries = new LinkedHashMap<String, Long>();
+    private boolean loaded = false;
+
+    /**
+     * @param folder       The update folder.
+     * @param pluginName   Name of the plugin running the updater.
+     * @param logger       Logger of the plugin.
+     * @param maxAge       Age in milliseconds after which a registered file is removed.
+     * @param maxSize      Size in bytes over which the oldest registered files are removed.
+     * @param maxDeletions Maximal number of files deleted by one run.
+     */
+    UpdateJanitor(File folder, String pluginName, Logger logger, long maxAge, long maxSize, int maxDeletions) {
+        this.folder = folder;
+        this.index = metadataFile(folder, pluginName, INDEX_SUFFIX);
+        this.logger = logger;
+        this.maxAge = maxAge;
+        this.maxSize = maxSize;
+        this.maxDeletions = maxDeletions;
+    }
+
+    /**
+     * Get a file of the updater in the update folder, such as the index.
+     *
+     * @param folder     The update folder.
+     * @param pluginName Name of the plugin running the updater.
+     * @param suffix     Extension of the file.
+     * @return the file.
+     */
+    static File metadataFile(File folder, String pluginName, String suffix) {
+        return new File(folder, METADATA_PREFIX + pluginName.replaceAll("[^A-Za-z0-9_.-]", "_") + suffix);
+    }
+
+    /**
+     * Register a file or a folder of the update folder created by the updater.
+     *
+     * @param file The created file.
+     */
+    synchronized void register(File file) {
+        this.load();
+        final String name = file.getName();
+        if (!this.entries.containsKey(name)) {
+            this.entries.put(name, System.currentTimeMillis());
+            this.save();
+        }
+    }
+
+    /**
+     * Forget a file that was removed or that must be kept.
+     *
+     * @param file The registered file.
+     */
+    synchronized void forget(File file) {
+        this.load();
+        if (this.entries.remove(file.getName()) != null) {
+            this.save();
+        }
+    }
+
+    /**
+     * Remove the registered files over the age and size budgets.
+     */
+    synchronized void clean() {
+        this.load();
+        if (this.entries.isEmpty()) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        final int[] budget = { this.maxDeletions };
+        final List<Map.Entry<String, Long>> kept = new ArrayList<Map.Entry<String, Long>>();
+        long size = 0;
+
+        // Age budget
+        final Iterator<Map.Entry<String, Long>> it = this.entries.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<String, Long> entry = it.next();
+            final File file = new File(this.folder, entry.getKey());
+            if (!file.exists()) {
+                it.remove();
+            } else if (now - entry.getValue() > this.maxAge || (entry.getKey().startsWith(STAGING_PREFIX) && now - lastModified(file) > Math.min(STAGING_GRACE, this.maxAge))) {
+                if (this.delete(file, budget)) {
+                    it.remove();
+                }
+            } else {
+                kept.add(entry);
+                size += sizeOf(file);
+            }
+        }
+
+        // Size budget, oldest first
+        Collections.sort(kept, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                return Long.compare(a.getValue(), b.getValue());
+            }
+        });
+        for (final Map.Entry<String, Long> entry : kept) {
+            if (size <= this.maxSize || budget[0] <= 0) {
+                break;
+            }
+            final File file = new File(this.folder, entry.getKey());
+            final long fileSize = sizeOf(file);
+            if (this.delete(file, budget)) {
+                this.entries.remove(entry.getKey());
+                size -= fileSize;
+            }
+        }
+
+        this.save();
+    }
+
+    /**
+     * Delete a file or a folder within the deletion budget.
+     *
+     * @return true if the file is completely deleted.
+     */
+    private boolean delete(File file, int[] budget) {
+        if (file.isDirectory()) {
+            final File[] children = file.listFiles();
+            if (children != null) {
+                for (final File child : children) {
+                    if (!this.delete(child, budget)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        if (budget[0] <= 0) {
+            return false;
+        }
+        budget[0]--;
+        if (!file.delete()) {
+            this.logger.severe("The updater could not delete file at: " + file.getAbsolutePath());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the last time a file or anything in a folder was written to.
+     */
+    private static long lastModified(File file) {
+        long lastModified = file.lastModified();
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                lastModified = Math.max(lastModified, lastModified(child));
+            }
+        }
+        return lastModified;
+    }
+
+    private static long sizeOf(File file) {
+        if (!file.isDirectory()) {
+            return file.length();
+        }
+        long size = 0;
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                size += sizeOf(child);
+            }
+        }
+        return size;
+    }
+
+    private void load() {
+        if (this.loaded) {
+            return;
+        }
+        this.loaded = true;
+        if (!this.index.isFile()) {
+            return;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.index), UTF8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    try {
+                        this.entries.put(line.substring(tab + 1), Long.parseLong(line.substring(0, tab)));
+                    } catch (final NumberFormatException ignored) {
+                        // Skip the corrupted line
+                    }
+                }
+            }
+        } catch (final IOException e) {
+            this.logger.warning("The updater could not read its index at: " + this.index.getAbsolutePath());
+        } finally {
+            try {
+                if (reader != null) {
+                    reader.close();
+                }
+            } catch (final IOException ignored) {
+            }
+        }
+    }
+
+    private void save() {
+        if (this.entries.isEmpty()) {
+            if (this.index.exists() && !this.index.delete()) {
+                this.logger.severe("The updater could not delete file at: " + this.index.getAbsolutePath());
+            }
+            return;
+        }
+        if (!this.folder.isDirectory()) {
+            return;
+        }
+
+        final File tmp = new File(this.folder, this.index.getName() + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), UTF8));
+            for (final Map.Entry<String, Long> entry : this.entries.entrySet()) {
+                writer.write(entry.getValue() + "\t" + entry.getKey() + "\n");
+            }
+            writer.close();
+            writer = null;
+            if (this.index.exists() && !this.index.delete() || !tmp.renameTo(this.index)) {
+                this.logger.severe("The updater could not create file at: " + this.index.getAbsolutePath());
+            }
+        } catch (final IOException e) {
+            this.logger.severe("The updater could not create file at: " + this.index.getAbsolutePath());
+        } finally {
+            try {
+                if (writer != null) {
+                    writer.close();
+                }
+            } catch (final IOException ignored) {
+            }
+        }
+    }
+}
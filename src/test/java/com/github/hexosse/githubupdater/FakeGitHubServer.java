@@ -0,0 +1,359 @@
+package com.github.hexosse.githubupdater;
+
+
+/*
+ * Copyright 2016 Hexosse
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * In-process stand-in for the GitHub releases API and its asset server.
+ * <p>
+ * Releases are served at {@code /repos/<owner>/<repository>/releases} in the GitHub format, and their
+ * assets at {@code /download/<owner>/<repository>/<tag>/<name>}. Every response can be delayed, asset
+ * downloads can be throttled, and API requests can fail with 403 or 5xx errors or hit a rate limit
+ * reported with the GitHub X-RateLimit headers.
+ * </p>
+ *
+ * @author hexoose
+ * @version 1.0
+ */
+public class FakeGitHubServer {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    // Used for sending assets
+    private static final int BYTE_SIZE = 8192;
+
+    /**
+     * Behavior of the server.
+     */
+    public static class Settings {
+        /** Fixed delay before each response, in milliseconds. */
+        public long latency = 0;
+        /** Random delay added to the fixed delay, in milliseconds. */
+        public long jitter = 0;
+        /** Download rate of each asset in bytes per second, 0 for no limit. */
+        public long bytesPerSecond = 0;
+        /** Share of API requests answered with 403. */
+        public double forbiddenRate = 0;
+        /** Share of API requests answered with 502 or 503. */
+        public double serverErrorRate = 0;
+        /** API requests allowed per window, 0 for no limit. */
+        public int rateLimit = 0;
+        /** Rate limit window, in seconds. */
+        public int rateLimitWindow = 60;
+    }
+
+    private final Settings settings;
+    private final Map<String, List<JSONObject>> releases = new ConcurrentHashMap<String, List<JSONObject>>();
+    private final Map<String, byte[]> assets = new ConcurrentHashMap<String, byte[]>();
+    private final Random random = new Random();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    // Rate limit window
+    private long windowStart = System.currentTimeMillis();
+    private int windowUsed = 0;
+
+    // Counters
+    private final AtomicLong apiRequests = new AtomicLong();
+    private final AtomicLong assetRequests = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong forbidden = new AtomicLong();
+    private final AtomicLong serverErrors = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+
+    /**
+     * @param settings Behavior of the server.
+     */
+    public FakeGitHubServer(Settings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Add a release, newer than the releases already added.
+     *
+     * @param repository The repository, such as "hexosse/Demo".
+     * @param tag        The release tag.
+     * @param prerelease True for a prerelease.
+     * @param files      Asset names and contents.
+     */
+    @SuppressWarnings("unchecked")
+    public void addRelease(String repository, String tag, boolean prerelease, Map<String, byte[]> files) {
+        final JSONArray assetArray = new JSONArray();
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            final String path = "/download/" + repository + "/" + tag + "/" + file.getKey();
+            this.assets.put(path, file.getValue());
+
+            final JSONObject asset = new JSONObject();
+            asset.put("name", file.getKey());
+            asset.put("size", (long) file.getValue().length);
+            asset.put("content_type", file.getKey().endsWith(".jar") ? "application/java-archive" : "application/zip");
+            asset.put("browser_download_url", path);
+            assetArray.add(asset);
+        }
+
+        final JSONObject release = new JSONObject();
+        release.put("tag_name", tag);
+        release.put("prerelease", prerelease);
+        release.put("draft", false);
+        release.put("assets", assetArray);
+
+        List<JSONObject> list = this.releases.get(repository);
+        if (list == null) {
+            list = new ArrayList<JSONObject>();
+            this.releases.put(repository, list);
+        }
+        list.add(0, release);
+    }
+
+    /**
+     * Start the server on a free port of the loopback interface.
+     *
+     * @throws IOException if the server could not be started.
+     */
+    public void start() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "fake-github");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/repos/", new ReleasesHandler());
+        this.server.createContext("/download/", new AssetHandler());
+        this.server.start();
+    }
+
+    /**
+     * Stop the server.
+     */
+    public void stop() {
+        if (this.server != null) {
+            this.server.stop(0);
+            this.executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return base url of the server.
+     */
+    public String getBaseUrl() {
+        return "http://" + this.server.getAddress().getHostString() + ":" + this.server.getAddress().getPort();
+    }
+
+    /**
+     * @return a release source reading from this server.
+     */
+    public ReleaseSource getReleaseSource() {
+        return new HttpReleaseSource("fake-github", this.getBaseUrl() + "/repos/{{ REPOSITORY }}/releases");
+    }
+
+    /**
+     * @return counters of the server, by name.
+     */
+    public Map<String, Long> getCounters() {
+        final Map<String, Long> counters = new LinkedHashMap<String, Long>();
+        counters.put("api requests", this.apiRequests.get());
+        counters.put("asset requests", this.assetRequests.get());
+        counters.put("bytes sent", this.bytesSent.get());
+        counters.put("403", this.forbidden.get());
+        counters.put("5xx", this.serverErrors.get());
+        counters.put("rate limited", this.rateLimited.get());
+        return counters;
+    }
+
+    private void delay() {
+        long delay = this.settings.latency;
+        if (this.settings.jitter > 0) {
+            synchronized (this.random) {
+                delay += (long) (this.random.nextDouble() * this.settings.jitter);
+            }
+        }
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private double roll() {
+        synchronized (this.random) {
+            return this.random.nextDouble();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int code, String body) throws IOException {
+        final byte[] bytes = body.getBytes(UTF8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        final OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    /**
+     * GET /repos/owner/repository/releases
+     */
+    private class ReleasesHandler implements HttpHandler {
+        @Override
+        @SuppressWarnings("unchecked")
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                apiRequests.incrementAndGet();
+                delay();
+
+                // Rate limit, as reported by GitHub
+                if (settings.rateLimit > 0) {
+                    final int remaining;
+                    final long reset;
+                    synchronized (FakeGitHubServer.this) {
+                        final long now = System.currentTimeMillis();
+                        if (now - windowStart >= settings.rateLimitWindow * 1000L) {
+                            windowStart = now;
+                            windowUsed = 0;
+                        }
+                        windowUsed++;
+                        remaining = settings.rateLimit - windowUsed;
+                        reset = (windowStart / 1000) + settings.rateLimitWindow;
+                    }
+                    exchange.getResponseHeaders().set("X-RateLimit-Limit", Integer.toString(settings.rateLimit));
+                    exchange.getResponseHeaders().set("X-RateLimit-Remaining", Integer.toString(Math.max(0, remaining)));
+                    exchange.getResponseHeaders().set("X-RateLimit-Reset", Long.toString(reset));
+                    if (remaining < 0) {
+                        rateLimited.incrementAndGet();
+                        send(exchange, 403, "{\"message\":\"API rate limit exceeded\"}");
+                        return;
+                    }
+                }
+
+                final double roll = roll();
+                if (roll < settings.forbiddenRate) {
+                    forbidden.incrementAndGet();
+                    send(exchange, 403, "{\"message\":\"Forbidden\"}");
+                    return;
+                }
+                if (roll < settings.forbiddenRate + settings.serverErrorRate) {
+                    serverErrors.incrementAndGet();
+                    send(exchange, roll < settings.forbiddenRate + settings.serverErrorRate / 2 ? 502 : 503, "{\"message\":\"Server Error\"}");
+                    return;
+                }
+
+                final String path = exchange.getRequestURI().getPath();
+                final String repository = path.substring("/repos/".length(), Math.max("/repos/".length(), path.lastIndexOf("/releases")));
+                final List<JSONObject> list = releases.get(repository);
+                if (list == null) {
+                    send(exchange, 404, "{\"message\":\"Not Found\"}");
+                    return;
+                }
+
+                // Download links are absolute, as on GitHub
+                final JSONArray response = new JSONArray();
+                for (JSONObject release : list) {
+                    response.add(withAbsoluteLinks(release));
+                }
+                send(exchange, 200, response.toJSONString());
+            } finally {
+                exchange.close();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private JSONObject withAbsoluteLinks(JSONObject release) {
+            final JSONObject copy = new JSONObject();
+            copy.putAll(release);
+            final JSONArray assetArray = new JSONArray();
+            for (Object object : (JSONArray) release.get("assets")) {
+                final JSONObject asset = new JSONObject();
+                asset.putAll((JSONObject) object);
+                asset.put("browser_download_url", getBaseUrl() + asset.get("browser_download_url"));
+                assetArray.add(asset);
+            }
+            copy.put("assets", assetArray);
+            return copy;
+        }
+    }
+
+    /**
+     * GET /download/owner/repository/tag/name
+     */
+    private class AssetHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                assetRequests.incrementAndGet();
+                delay();
+
+                final byte[] content = assets.get(exchange.getRequestURI().getPath());
+                if (content == null) {
+                    send(exchange, 404, "{\"message\":\"Not Found\"}");
+                    return;
+                }
+
+                exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                exchange.sendResponseHeaders(200, content.length);
+                final OutputStream out = exchange.getResponseBody();
+                final long start = System.nanoTime();
+                for (int offset = 0; offset < content.length; offset += BYTE_SIZE) {
+                    final int count = Math.min(BYTE_SIZE, content.length - offset);
+                    out.write(content, offset, count);
+                    bytesSent.addAndGet(count);
+                    if (settings.bytesPerSecond > 0) {
+                        // Sleep until the bytes sent so far match the rate
+                        final long due = start + ((offset + count) * 1000000000L) / settings.bytesPerSecond;
+                        final long wait = due - System.nanoTime();
+                        if (wait > 0) {
+                            try {
+                                Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                break;
+                            }
+                        }
+                    }
+                }
+                out.close();
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
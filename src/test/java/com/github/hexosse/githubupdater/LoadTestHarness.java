@@ -0,0 +1,338 @@
+package com.github.hexosse.githubupdater;
+
+
+/*
+ * Copyright 2016 Hexosse
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.bukkit.Server;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginDescriptionFile;
+
+/**
+ * Run hundreds of updaters at the same time against a {@link FakeGitHubServer}, without network access.
+ * <p>
+ * Each updater runs for its own fake plugin with its own plugins folder, and downloads a generated
+ * plugin jar. The harness reports the throughput, the latency percentiles of a whole update,
+ * the results, the peak thread count and heap use, and the server counters.
+ * </p>
+ * <p>
+ * Options are given as {@code key=value} arguments: {@code updaters} (200), {@code latency} and
+ * {@code jitter} in ms (50, 50), {@code rate} in bytes per second per download (0), {@code forbidden}
+ * and {@code errors} as shares of API requests (0, 0.02), {@code ratelimit} requests per minute (0),
+ * {@code size} of the asset in bytes (1048576) and {@code companion} to add a data zip (false).
+ * </p>
+ * <pre>
+ * mvn test-compile org.codehaus.mojo:exec-maven-plugin:1.6.0:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.github.hexosse.githubupdater.LoadTestHarness -Dexec.args="updaters=500 errors=0.05"
+ * </pre>
+ *
+ * @author hexoose
+ * @version 1.0
+ */
+public class LoadTestHarness {
+
+    private static final String REPOSITORY = "hexosse/Demo";
+    private static final String PLUGIN_NAME = "Demo";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            final int equals = arg.indexOf('=');
+            if (equals > 0) {
+                options.put(arg.substring(0, equals), arg.substring(equals + 1));
+            }
+        }
+
+        final int updaters = Integer.parseInt(option(options, "updaters", "200"));
+        final int size = Integer.parseInt(option(options, "size", "1048576"));
+        final boolean companion = Boolean.parseBoolean(option(options, "companion", "false"));
+        final FakeGitHubServer.Settings settings = new FakeGitHubServer.Settings();
+        settings.latency = Long.parseLong(option(options, "latency", "50"));
+        settings.jitter = Long.parseLong(option(options, "jitter", "50"));
+        settings.bytesPerSecond = Long.parseLong(option(options, "rate", "0"));
+        settings.forbiddenRate = Double.parseDouble(option(options, "forbidden", "0"));
+        settings.serverErrorRate = Double.parseDouble(option(options, "errors", "0.02"));
+        settings.rateLimit = Integer.parseInt(option(options, "ratelimit", "0"));
+
+        final File root = new File(System.getProperty("java.io.tmpdir"), "githubupdater-load-" + System.currentTimeMillis());
+        final FakeGitHubServer server = new FakeGitHubServer(settings);
+        final Map<String, byte[]> files = new LinkedHashMap<String, byte[]>();
+        files.put(PLUGIN_NAME + "-1.1.0.jar", pluginJar("1.1.0", size));
+        files.put(PLUGIN_NAME + "-1.1.0-sources.jar", pluginJar("1.1.0", size / 4));
+        if (companion) {
+            files.put(PLUGIN_NAME + "-data-1.1.0.zip", dataZip(size / 4));
+        }
+        server.addRelease(REPOSITORY, "v1.0.0", false, new HashMap<String, byte[]>());
+        server.addRelease(REPOSITORY, "v1.1.0", false, files);
+        server.start();
+
+        final ReleaseSourceRouter sources = new ReleaseSourceRouter(server.getReleaseSource());
+        final Logger logger = Logger.getLogger("LoadTestHarness");
+        logger.setLevel(Level.OFF);
+
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        final int baselineThreads = threads.getThreadCount();
+        final long baselineHeap = memory.getHeapMemoryUsage().getUsed();
+        threads.resetPeakThreadCount();
+        final Sampler sampler = new Sampler(memory);
+        sampler.start();
+
+        // Every updater is created at the same time, from its own driver thread
+        final long[] latencies = new long[updaters];
+        final GitHubUpdater.UpdateResult[] results = new GitHubUpdater.UpdateResult[updaters];
+        final CountDownLatch ready = new CountDownLatch(updaters);
+        final CountDownLatch go = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(updaters);
+        for (int i = 0; i < updaters; i++) {
+            final int id = i;
+            final GitHubUpdater.Options updaterOptions = new GitHubUpdater.Options()
+                    .setReleaseSources(sources)
+                    .setAssetSelector(AssetSelector.defaults().include("*.jar"));
+            if (companion) {
+                updaterOptions.addCompanionAsset(new AssetSelector().include("*-data-*.zip"));
+            }
+            final Plugin plugin = fakePlugin(new File(root, Integer.toString(id)), logger);
+            final Thread driver = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ready.countDown();
+                        go.await();
+                        final long start = System.nanoTime();
+                        final GitHubUpdater updater = new GitHubUpdater(plugin, REPOSITORY, new File(plugin.getDataFolder().getParentFile(), PLUGIN_NAME + ".jar"),
+                                GitHubUpdater.UpdateType.DEFAULT, null, false, updaterOptions);
+                        results[id] = updater.getResult();
+                        latencies[id] = System.nanoTime() - start;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            }, "updater-driver-" + id);
+            driver.start();
+        }
+
+        ready.await();
+        final long start = System.nanoTime();
+        go.countDown();
+        finished.await();
+        final long duration = System.nanoTime() - start;
+        sampler.interrupt();
+        sampler.join();
+        server.stop();
+
+        // Report
+        final Map<GitHubUpdater.UpdateResult, Integer> counts = new EnumMap<GitHubUpdater.UpdateResult, Integer>(GitHubUpdater.UpdateResult.class);
+        for (GitHubUpdater.UpdateResult result : results) {
+            if (result != null) {
+                counts.put(result, counts.containsKey(result) ? counts.get(result) + 1 : 1);
+            }
+        }
+        Arrays.sort(latencies);
+        System.out.println("Updaters:   " + updaters + " in " + String.format("%.2f", duration / 1e9) + " s, "
+                + String.format("%.1f", updaters / (duration / 1e9)) + " updates/s");
+        System.out.println("Latency:    p50 " + millis(latencies, 0.50) + " ms, p90 " + millis(latencies, 0.90)
+                + " ms, p99 " + millis(latencies, 0.99) + " ms, max " + millis(latencies, 1.0) + " ms");
+        System.out.println("Results:    " + counts);
+        System.out.println("Threads:    baseline " + baselineThreads + ", peak " + threads.getPeakThreadCount()
+                + " (including " + updaters + " driver threads)");
+        System.out.println("Heap:       baseline " + (baselineHeap >> 20) + " MB, peak " + (sampler.peakHeap >> 20) + " MB");
+        System.out.println("Server:     " + server.getCounters());
+        System.out.println("Source:     average latency " + sources.getLatency(sources.getSources().get(0)) + " ms");
+
+        delete(root);
+    }
+
+    private static String option(Map<String, String> options, String key, String defaultValue) {
+        return options.containsKey(key) ? options.get(key) : defaultValue;
+    }
+
+    private static long millis(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        final int index = Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1000000;
+    }
+
+    /**
+     * Create a plugin running from its own plugins folder.
+     */
+    private static Plugin fakePlugin(File root, final Logger logger) {
+        final File plugins = new File(root, "plugins");
+        final File dataFolder = new File(plugins, PLUGIN_NAME);
+        final File updateFolder = new File(plugins, "update");
+        if (!dataFolder.mkdirs()) {
+            throw new IllegalStateException("Could not create " + dataFolder.getAbsolutePath());
+        }
+        final PluginDescriptionFile description = new PluginDescriptionFile(PLUGIN_NAME, "1.0.0", "com.example.Demo");
+        final Server server = (Server) Proxy.newProxyInstance(LoadTestHarness.class.getClassLoader(), new Class<?>[] { Server.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getUpdateFolderFile")) {
+                    return updateFolder;
+                }
+                return defaultValue(method);
+            }
+        });
+        return (Plugin) Proxy.newProxyInstance(LoadTestHarness.class.getClassLoader(), new Class<?>[] { Plugin.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                final String name = method.getName();
+                if (name.equals("getServer")) {
+                    return server;
+                } else if (name.equals("getDescription")) {
+                    return description;
+                } else if (name.equals("getLogger")) {
+                    return logger;
+                } else if (name.equals("getDataFolder")) {
+                    return dataFolder;
+                } else if (name.equals("getName")) {
+                    return PLUGIN_NAME;
+                } else if (name.equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                } else if (name.equals("equals")) {
+                    return proxy == args[0];
+                } else if (name.equals("toString")) {
+                    return PLUGIN_NAME;
+                }
+                return defaultValue(method);
+            }
+        });
+    }
+
+    private static Object defaultValue(Method method) {
+        final Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == double.class) {
+            return 0.0;
+        } else if (type == float.class) {
+            return 0.0f;
+        } else if (type == char.class) {
+            return '\0';
+        }
+        return null;
+    }
+
+    /**
+     * Build a plugin jar of about the given size.
+     */
+    private static byte[] pluginJar(String version, int size) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(size + 1024);
+        final ZipOutputStream zip = new ZipOutputStream(bytes);
+        zip.putNextEntry(new ZipEntry("plugin.yml"));
+        zip.write(("name: " + PLUGIN_NAME + "\nversion: " + version + "\nmain: com.example.Demo\n").getBytes(UTF8));
+        zip.closeEntry();
+        // Random content so that the jar keeps its size once compressed
+        final ZipEntry content = new ZipEntry("com/example/Demo.class");
+        final byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        zip.putNextEntry(content);
+        zip.write(data);
+        zip.closeEntry();
+        zip.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Build a data zip for the plugin data folder.
+     */
+    private static byte[] dataZip(int size) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(size + 1024);
+        final ZipOutputStream zip = new ZipOutputStream(bytes);
+        zip.putNextEntry(new ZipEntry(PLUGIN_NAME + "/data.bin"));
+        final byte[] data = new byte[size];
+        new Random(size + 1).nextBytes(data);
+        zip.write(data);
+        zip.closeEntry();
+        zip.close();
+        return bytes.toByteArray();
+    }
+
+    private static void delete(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            System.err.println("Could not delete " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Sample the heap use while the updaters run.
+     */
+    private static class Sampler extends Thread {
+        private final MemoryMXBean memory;
+        private volatile long peakHeap = 0;
+
+        private Sampler(MemoryMXBean memory) {
+            super("heap-sampler");
+            this.memory = memory;
+            this.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!this.isInterrupted()) {
+                this.peakHeap = Math.max(this.peakHeap, this.memory.getHeapMemoryUsage().getUsed());
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            this.peakHeap = Math.max(this.peakHeap, this.memory.getHeapMemoryUsage().getUsed());
+        }
+    }
+}